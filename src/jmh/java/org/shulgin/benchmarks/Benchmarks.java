@@ -0,0 +1,20 @@
+package org.shulgin.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    static void delete(Path directory) throws IOException {
+        try(Stream<Path> paths = Files.walk(directory)) {
+            for(Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
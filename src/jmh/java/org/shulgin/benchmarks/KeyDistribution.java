@@ -0,0 +1,71 @@
+package org.shulgin.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Key sequences the benchmarks draw from. Keys are generated up front so the generator is
+ * not part of what is measured.
+ */
+public enum KeyDistribution {
+    SEQUENTIAL,
+    RANDOM,
+    /**
+     * Zipfian over ranks with theta 0.99 as in YCSB, with ranks scattered over the range so
+     * the hot keys are not neighbours.
+     */
+    ZIPFIAN;
+
+    private static final double THETA = 0.99;
+
+    /**
+     * Returns {@code count} keys in [0, range).
+     */
+    public long[] keys(int count, long range, long seed) {
+        Random random = new Random(seed);
+        long[] keys = new long[count];
+        switch (this) {
+            case SEQUENTIAL -> {
+                for(int i = 0; i < count; i++) {
+                    keys[i] = i % range;
+                }
+            }
+            case RANDOM -> {
+                for(int i = 0; i < count; i++) {
+                    keys[i] = Math.floorMod(random.nextLong(), range);
+                }
+            }
+            case ZIPFIAN -> {
+                double zetaN = zeta(range);
+                double alpha = 1 / (1 - THETA);
+                double eta = (1 - Math.pow(2.0 / range, 1 - THETA)) / (1 - zeta(2) / zetaN);
+                for(int i = 0; i < count; i++) {
+                    double u = random.nextDouble();
+                    double uz = u * zetaN;
+                    long rank;
+                    if(uz < 1) {
+                        rank = 0;
+                    } else if(uz < 1 + Math.pow(0.5, THETA)) {
+                        rank = 1;
+                    } else {
+                        rank = (long) (range * Math.pow(eta * u - eta + 1, alpha));
+                    }
+                    keys[i] = Math.floorMod(scatter(rank), range);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static double zeta(long n) {
+        double sum = 0;
+        for(long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, THETA);
+        }
+        return sum;
+    }
+
+    private static long scatter(long rank) {
+        long h = rank * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,99 @@
+package org.shulgin.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.shulgin.codec.Codecs;
+import org.shulgin.tree.*;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded insert, get and remove on each MemTable implementation. {@code insert}
+ * fills a fresh table with {@link #OPERATIONS} keys per invocation, so it includes growth
+ * (and AVL rebalancing) from empty; {@code get} and {@code remove} run against a table
+ * holding every key in [0, size).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemTableBenchmark {
+    private static final int OPERATIONS = 1 << 16;
+
+    @Param({"AVL", "SKIP_LIST", "OFF_HEAP", "LONG"})
+    private String table;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    @Param({"100000"})
+    private int size;
+
+    private final byte[] value = new byte[100];
+    private long[] keys;
+    private IMemTable<Long, byte[]> memTable;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = distribution.keys(OPERATIONS, size, 42);
+        memTable = newTable();
+        for(long key = 0; key < size; key++) {
+            memTable.put(key, value);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public IMemTable<Long, byte[]> insert() {
+        IMemTable<Long, byte[]> fresh = newTable();
+        if(fresh instanceof LongMemTable<byte[]> longTable) {
+            for(long key : keys) {
+                longTable.putLong(key, value);
+            }
+        } else {
+            for(long key : keys) {
+                fresh.put(key, value);
+            }
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    public byte[] get() {
+        long key = nextKey();
+        if(memTable instanceof LongMemTable<byte[]> longTable) {
+            return longTable.getLong(key);
+        }
+        return memTable.get(key);
+    }
+
+    /**
+     * Removes a key and puts it back, so the table stays the same size across invocations.
+     */
+    @Benchmark
+    public byte[] remove() {
+        long key = nextKey();
+        byte[] removed = memTable.remove(key);
+        memTable.put(key, value);
+        return removed;
+    }
+
+    private long nextKey() {
+        long key = keys[next];
+        next = (next + 1) & (OPERATIONS - 1);
+        return key;
+    }
+
+    private IMemTable<Long, byte[]> newTable() {
+        return switch (table) {
+            case "AVL" -> new MemTable<>();
+            case "SKIP_LIST" -> new ConcurrentMemTable<>(Comparator.naturalOrder());
+            case "OFF_HEAP" -> new OffHeapMemTable<>(Codecs.LONG.comparator(), 1 << 20, Codecs.LONG, Codecs.BYTE_ARRAY);
+            case "LONG" -> new LongMemTable<>();
+            default -> throw new IllegalArgumentException("Unknown table: " + table);
+        };
+    }
+}
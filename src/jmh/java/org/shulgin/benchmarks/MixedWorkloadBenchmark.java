@@ -0,0 +1,86 @@
+package org.shulgin.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.shulgin.codec.Codecs;
+import org.shulgin.service.Store;
+import org.shulgin.service.StoreOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent readers and writers on one store, as JMH thread groups: {@code read90} runs nine
+ * reader threads per writer and {@code read50} runs them one to one. Keys are uniform over a
+ * range the store is filled with before the run, so gets hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+    private static final long KEY_RANGE = 1 << 20;
+
+    @Param({"10000"})
+    private int memTableSize;
+
+    private final byte[] value = new byte[100];
+    private Path directory;
+    private Store<Long, byte[]> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("mixed-benchmark");
+        store = new Store<>(memTableSize, directory.toString(), "table", new StoreOptions(),
+                Codecs.LONG, Codecs.BYTE_ARRAY);
+        for(long key = 0; key < KEY_RANGE; key++) {
+            store.put(key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    @Group("read90")
+    @GroupThreads(9)
+    public byte[] read90Get() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("read90")
+    @GroupThreads(1)
+    public void read90Put() {
+        put();
+    }
+
+    @Benchmark
+    @Group("read50")
+    @GroupThreads(4)
+    public byte[] read50Get() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("read50")
+    @GroupThreads(4)
+    public void read50Put() {
+        put();
+    }
+
+    private byte[] get() {
+        return store.get(ThreadLocalRandom.current().nextLong(KEY_RANGE));
+    }
+
+    private void put() {
+        store.put(ThreadLocalRandom.current().nextLong(KEY_RANGE), value);
+    }
+}
@@ -0,0 +1,113 @@
+package org.shulgin.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.shulgin.codec.Codecs;
+import org.shulgin.compaction.CompactionStyle;
+import org.shulgin.service.Store;
+import org.shulgin.service.StoreOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store put and get. {@code put} writes random keys into a store whose MemTable holds
+ * {@code memTableSize} entries, so a run crosses many rotations and flushes. {@code getHit}
+ * and {@code getMiss} read a store reopened over {@code files} flushed files holding the even
+ * keys, with compaction off so the file count stays fixed; a miss asks for an odd key inside
+ * the files' key range and is answered by the filters.
+ * <p>
+ * The read store is built once per parameter set under {@code benchmark.data}, by default
+ * {@code target/benchmark-data}, and reused by later trials and forks; {@code mvn clean}
+ * drops it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+    private static final long PUT_KEY_RANGE = 1 << 20;
+    private static final byte[] VALUE = new byte[100];
+    private static final StoreOptions READ_OPTIONS = new StoreOptions()
+            .setCompactionStyle(CompactionStyle.NONE).setWalEnabled(false);
+
+    @State(Scope.Benchmark)
+    public static class Reads {
+        @Param({"1", "10", "50"})
+        private int files;
+
+        @Param({"10000"})
+        private int memTableSize;
+
+        private Store<Long, byte[]> store;
+        private long entries;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            entries = (long) files * memTableSize;
+            Path data = Path.of(System.getProperty("benchmark.data", "target/benchmark-data"));
+            Path directory = data.resolve("read-" + files + "-" + memTableSize);
+            if(Files.notExists(directory)) {
+                // built aside and moved in, so an interrupted build is never reused
+                Files.createDirectories(data);
+                Path building = Files.createTempDirectory(data, "building");
+                try(Store<Long, byte[]> store = open(building, memTableSize, READ_OPTIONS)) {
+                    for(long i = 0; i < entries; i++) {
+                        store.put(i * 2, VALUE);
+                    }
+                }
+                Files.move(building, directory, StandardCopyOption.ATOMIC_MOVE);
+            }
+            store = open(directory, memTableSize, READ_OPTIONS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"10000"})
+        private int memTableSize;
+
+        private Path directory;
+        private Store<Long, byte[]> store;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("store-benchmark");
+            store = open(directory, memTableSize, new StoreOptions());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+            Benchmarks.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void put(Writes writes) {
+        writes.store.put(ThreadLocalRandom.current().nextLong(PUT_KEY_RANGE), VALUE);
+    }
+
+    @Benchmark
+    public byte[] getHit(Reads reads) {
+        return reads.store.get(ThreadLocalRandom.current().nextLong(reads.entries) * 2);
+    }
+
+    @Benchmark
+    public byte[] getMiss(Reads reads) {
+        return reads.store.get(ThreadLocalRandom.current().nextLong(reads.entries - 1) * 2 + 1);
+    }
+
+    private static Store<Long, byte[]> open(Path directory, int memTableSize, StoreOptions options) throws Exception {
+        return new Store<>(memTableSize, directory.toString(), "table", options, Codecs.LONG, Codecs.BYTE_ARRAY);
+    }
+}
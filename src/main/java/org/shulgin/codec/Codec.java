@@ -0,0 +1,35 @@
+package org.shulgin.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Binary encoding of keys or values for the log, the off-heap MemTable and flushed files.
+ * <p>
+ * A codec is order preserving when comparing encodings as unsigned bytes gives the same
+ * order as {@link #comparator()}. Files written with such a key codec are searched by
+ * comparing encoded keys directly, without decoding them.
+ */
+public interface Codec<T> {
+    byte[] encode(T value) throws IOException;
+
+    /**
+     * Decodes {@code length} bytes starting at the buffer's position and moves the position
+     * past them.
+     */
+    T decode(ByteBuffer buffer, int length) throws IOException;
+
+    Comparator<? super T> comparator();
+
+    default boolean orderPreserving() {
+        return false;
+    }
+
+    /**
+     * Length of every encoding, or 0 when encodings vary in length.
+     */
+    default int fixedWidth() {
+        return 0;
+    }
+}
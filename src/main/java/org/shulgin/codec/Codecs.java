@@ -0,0 +1,209 @@
+package org.shulgin.codec;
+
+import org.shulgin.sstable.ObjectSerializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Built-in codecs. The byte[], String, Integer and Long codecs are order preserving:
+ * integers are stored big-endian with the sign bit flipped and strings sort by code point.
+ */
+public final class Codecs {
+    public static final Codec<byte[]> BYTE_ARRAY = new ByteArrayCodec();
+    public static final Codec<String> STRING = new StringCodec();
+    public static final Codec<Integer> INTEGER = new IntegerCodec();
+    public static final Codec<Long> LONG = new LongCodec();
+    private static final Codec<Object> SERIALIZABLE = new SerializableCodec();
+
+    private Codecs() {
+    }
+
+    /**
+     * Java serialization with the natural order of the values, the default for stores
+     * created without codecs.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> serializable() {
+        return (Codec<T>) SERIALIZABLE;
+    }
+
+    /**
+     * Same encoding as {@link #LONG} without boxing the key.
+     */
+    public static byte[] encodeLong(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value ^ Long.MIN_VALUE).array();
+    }
+
+    public static long decodeLong(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Unsigned lexicographic comparison of {@code length} bytes of the buffer starting at
+     * {@code position} against {@code bytes}. The buffer's own position is not used.
+     */
+    public static int compare(ByteBuffer buffer, int position, int length, byte[] bytes) {
+        int common = Math.min(length, bytes.length);
+        for(int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(position + i) & 0xFF, bytes[i] & 0xFF);
+            if(cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, bytes.length);
+    }
+
+    private static byte[] read(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static final class ByteArrayCodec implements Codec<byte[]> {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer buffer, int length) {
+            return read(buffer, length);
+        }
+
+        @Override
+        public Comparator<? super byte[]> comparator() {
+            return Arrays::compareUnsigned;
+        }
+
+        @Override
+        public boolean orderPreserving() {
+            return true;
+        }
+    }
+
+    private static final class StringCodec implements Codec<String> {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer, int length) {
+            if(buffer.hasArray()) {
+                String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return value;
+            }
+            return new String(read(buffer, length), StandardCharsets.UTF_8);
+        }
+
+        // UTF-8 bytes sort by code point, String.compareTo by UTF-16 unit: surrogates are
+        // moved above the rest of the BMP so both orders agree.
+        @Override
+        public Comparator<? super String> comparator() {
+            return (first, second) -> {
+                int common = Math.min(first.length(), second.length());
+                for(int i = 0; i < common; i++) {
+                    char a = first.charAt(i);
+                    char b = second.charAt(i);
+                    if(a != b) {
+                        return Integer.compare(codePointOrder(a), codePointOrder(b));
+                    }
+                }
+                return Integer.compare(first.length(), second.length());
+            };
+        }
+
+        @Override
+        public boolean orderPreserving() {
+            return true;
+        }
+
+        private static int codePointOrder(char c) {
+            return c >= 0xE000 ? c - 0x800 : c >= 0xD800 ? c + 0x2000 : c;
+        }
+    }
+
+    private static final class IntegerCodec implements Codec<Integer> {
+        @Override
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(value ^ Integer.MIN_VALUE).array();
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int length) throws IOException {
+            if(length != Integer.BYTES) {
+                throw new IOException("Bad integer length: " + length);
+            }
+            return buffer.getInt() ^ Integer.MIN_VALUE;
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return Comparator.naturalOrder();
+        }
+
+        @Override
+        public boolean orderPreserving() {
+            return true;
+        }
+
+        @Override
+        public int fixedWidth() {
+            return Integer.BYTES;
+        }
+    }
+
+    private static final class LongCodec implements Codec<Long> {
+        @Override
+        public byte[] encode(Long value) {
+            return encodeLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int length) throws IOException {
+            if(length != Long.BYTES) {
+                throw new IOException("Bad long length: " + length);
+            }
+            return buffer.getLong() ^ Long.MIN_VALUE;
+        }
+
+        @Override
+        public Comparator<? super Long> comparator() {
+            return Comparator.naturalOrder();
+        }
+
+        @Override
+        public boolean orderPreserving() {
+            return true;
+        }
+
+        @Override
+        public int fixedWidth() {
+            return Long.BYTES;
+        }
+    }
+
+    private static final class SerializableCodec implements Codec<Object> {
+        @Override
+        public byte[] encode(Object value) throws IOException {
+            return ObjectSerializer.serialize(value);
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer, int length) throws IOException {
+            return ObjectSerializer.deserialize(buffer, length);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Comparator<Object> comparator() {
+            return (Comparator<Object>) (Comparator<?>) Comparator.naturalOrder();
+        }
+    }
+}
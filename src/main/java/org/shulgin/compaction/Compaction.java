@@ -0,0 +1,9 @@
+package org.shulgin.compaction;
+
+import org.shulgin.sstable.SSTableReader;
+
+import java.util.List;
+
+public record Compaction<K,V>(List<SSTableReader<K,V>> inputs, int outputLevel,
+                              boolean bottommost, long targetFileSize) {
+}
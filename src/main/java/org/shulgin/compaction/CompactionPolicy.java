@@ -0,0 +1,15 @@
+package org.shulgin.compaction;
+
+import org.shulgin.sstable.SSTableReader;
+
+import java.util.List;
+
+public interface CompactionPolicy<K,V> {
+    /**
+     * Picks the next set of runs to merge. Files are given in store order: deeper levels
+     * first, then level 0 from oldest to newest. Inputs must be returned in the same order.
+     *
+     * @return the compaction to run or null if nothing needs merging
+     */
+    Compaction<K,V> pick(List<SSTableReader<K,V>> files);
+}
@@ -0,0 +1,7 @@
+package org.shulgin.compaction;
+
+public enum CompactionStyle {
+    NONE,
+    SIZE_TIERED,
+    LEVELED
+}
@@ -0,0 +1,124 @@
+package org.shulgin.compaction;
+
+import org.shulgin.sstable.SSTableReader;
+
+import java.util.*;
+
+public class LeveledCompactionPolicy<K,V> implements CompactionPolicy<K,V> {
+    public static final int MAX_LEVELS = 7;
+
+    private final Comparator<? super K> comparator;
+    private final int level0FileTrigger;
+    private final long levelBaseBytes;
+    private final int levelMultiplier;
+    private final long targetFileSize;
+    private final List<K> compactPointers = new ArrayList<>(Collections.nCopies(MAX_LEVELS, null));
+
+    public LeveledCompactionPolicy(Comparator<? super K> comparator, int level0FileTrigger,
+                                   long levelBaseBytes, int levelMultiplier, long targetFileSize) {
+        this.comparator = comparator;
+        this.level0FileTrigger = level0FileTrigger;
+        this.levelBaseBytes = levelBaseBytes;
+        this.levelMultiplier = levelMultiplier;
+        this.targetFileSize = targetFileSize;
+    }
+
+    @Override
+    public Compaction<K,V> pick(List<SSTableReader<K,V>> files) {
+        List<List<SSTableReader<K,V>>> levels = new ArrayList<>();
+        for(int i = 0; i < MAX_LEVELS; i++) {
+            levels.add(new ArrayList<>());
+        }
+        for(SSTableReader<K,V> file : files) {
+            levels.get(Math.min(file.level(), MAX_LEVELS - 1)).add(file);
+        }
+
+        List<SSTableReader<K,V>> picked = null;
+        int outputLevel = 0;
+        if(levels.get(0).size() >= level0FileTrigger) {
+            picked = new ArrayList<>(levels.get(0));
+            outputLevel = 1;
+        } else {
+            long maxBytes = levelBaseBytes;
+            for(int level = 1; level < MAX_LEVELS - 1; level++, maxBytes *= levelMultiplier) {
+                if(totalSize(levels.get(level)) > maxBytes) {
+                    picked = new ArrayList<>(List.of(nextFile(levels.get(level), level)));
+                    outputLevel = level + 1;
+                    break;
+                }
+            }
+        }
+        if(picked == null) {
+            return null;
+        }
+
+        K from = minKey(picked);
+        K to = maxKey(picked);
+        for(SSTableReader<K,V> file : levels.get(outputLevel)) {
+            if(file.overlaps(from, to)) {
+                picked.add(file);
+            }
+        }
+        from = minKey(picked);
+        to = maxKey(picked);
+        compactPointers.set(outputLevel - 1, to);
+
+        boolean bottommost = true;
+        for(int level = outputLevel + 1; level < MAX_LEVELS && bottommost; level++) {
+            for(SSTableReader<K,V> file : levels.get(level)) {
+                if(file.overlaps(from, to)) {
+                    bottommost = false;
+                    break;
+                }
+            }
+        }
+
+        List<SSTableReader<K,V>> inputs = new ArrayList<>(picked.size());
+        for(SSTableReader<K,V> file : files) {
+            if(picked.contains(file)) {
+                inputs.add(file);
+            }
+        }
+        return new Compaction<>(inputs, outputLevel, bottommost, targetFileSize);
+    }
+
+    private SSTableReader<K,V> nextFile(List<SSTableReader<K,V>> level, int levelNumber) {
+        K pointer = compactPointers.get(levelNumber);
+        if(pointer != null) {
+            for(SSTableReader<K,V> file : level) {
+                if(comparator.compare(file.firstKey(), pointer) > 0) {
+                    return file;
+                }
+            }
+        }
+        return level.get(0);
+    }
+
+    private K minKey(List<SSTableReader<K,V>> files) {
+        K min = null;
+        for(SSTableReader<K,V> file : files) {
+            if(file.entryCount() > 0 && (min == null || comparator.compare(file.firstKey(), min) < 0)) {
+                min = file.firstKey();
+            }
+        }
+        return min;
+    }
+
+    private K maxKey(List<SSTableReader<K,V>> files) {
+        K max = null;
+        for(SSTableReader<K,V> file : files) {
+            if(file.entryCount() > 0 && (max == null || comparator.compare(file.lastKey(), max) > 0)) {
+                max = file.lastKey();
+            }
+        }
+        return max;
+    }
+
+    private static long totalSize(List<? extends SSTableReader<?,?>> files) {
+        long total = 0;
+        for(SSTableReader<?,?> file : files) {
+            total += file.size();
+        }
+        return total;
+    }
+}
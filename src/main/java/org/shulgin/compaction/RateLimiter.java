@@ -0,0 +1,28 @@
+package org.shulgin.compaction;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiter {
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        if(bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now);
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        }
+        if(waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.shulgin.compaction;
+
+import org.shulgin.sstable.SSTableReader;
+
+import java.util.List;
+
+public class SizeTieredCompactionPolicy<K,V> implements CompactionPolicy<K,V> {
+    private static final double BUCKET_LOW = 0.5;
+    private static final double BUCKET_HIGH = 1.5;
+
+    private final int minThreshold;
+    private final int maxThreshold;
+
+    public SizeTieredCompactionPolicy(int minThreshold, int maxThreshold) {
+        if(minThreshold < 2 || maxThreshold < minThreshold) {
+            throw new IllegalArgumentException("Bad thresholds: " + minThreshold + ", " + maxThreshold);
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+    }
+
+    @Override
+    public Compaction<K,V> pick(List<SSTableReader<K,V>> files) {
+        int firstLevel0 = 0;
+        while(firstLevel0 < files.size() && files.get(firstLevel0).level() > 0) {
+            firstLevel0++;
+        }
+
+        int bestStart = -1;
+        int bestCount = 0;
+        double bestAverage = Double.MAX_VALUE;
+        for(int start = firstLevel0; start < files.size(); start++) {
+            long total = files.get(start).size();
+            int count = 1;
+            while(start + count < files.size() && count < maxThreshold) {
+                double average = (double) total / count;
+                long size = files.get(start + count).size();
+                if(size < average * BUCKET_LOW || size > average * BUCKET_HIGH) {
+                    break;
+                }
+                total += size;
+                count++;
+            }
+            double average = (double) total / count;
+            if(count >= minThreshold && average < bestAverage) {
+                bestStart = start;
+                bestCount = count;
+                bestAverage = average;
+            }
+        }
+
+        if(bestStart < 0) {
+            return null;
+        }
+        return new Compaction<>(List.copyOf(files.subList(bestStart, bestStart + bestCount)), 0,
+                bestStart == 0, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,15 @@
+package org.shulgin.exception;
+
+import java.io.IOException;
+import java.io.Serial;
+
+public class CorruptedFileException extends IOException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public CorruptedFileException() { }
+
+    public CorruptedFileException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.shulgin.metrics;
+
+/**
+ * Latencies in nanoseconds. Percentiles are bucket upper bounds, so they overstate the
+ * exact value by at most about 3%.
+ */
+public record HistogramSnapshot(long count, double meanNanos, long p50Nanos, long p90Nanos,
+                                long p99Nanos, long p999Nanos, long maxNanos) {
+}
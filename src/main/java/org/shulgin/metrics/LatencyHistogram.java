@@ -0,0 +1,90 @@
+package org.shulgin.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of nanosecond latencies with log-linear buckets, as in HdrHistogram:
+ * every power of two is split into {@value #SUB_BUCKETS} equal buckets, so a recorded value
+ * is off by at most 1/{@value #SUB_BUCKETS} of itself. Recording is a bucket index
+ * computation and one atomic increment, with no allocation. Values of 2^41 ns, about 36.6
+ * minutes, and above land in the last bucket.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        long currentMax = max.get();
+        while(nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Counts recorded concurrently with the snapshot may or may not be included, and the
+     * mean may be off by the ones that are half way in.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            count += buckets[i];
+        }
+        if(count == 0) {
+            return new HistogramSnapshot(0, 0, 0, 0, 0, 0, 0);
+        }
+        long maxNanos = max.get();
+        return new HistogramSnapshot(count, (double) total.sum() / count,
+                percentile(buckets, count, 0.5, maxNanos), percentile(buckets, count, 0.9, maxNanos),
+                percentile(buckets, count, 0.99, maxNanos), percentile(buckets, count, 0.999, maxNanos),
+                maxNanos);
+    }
+
+    static int bucket(long nanos) {
+        if(nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if(exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value that falls into the bucket.
+    static long upperBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static long percentile(long[] buckets, long count, double quantile, long maxNanos) {
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen >= rank) {
+                return Math.min(upperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+}
@@ -0,0 +1,11 @@
+package org.shulgin.service;
+
+public enum MemTableType {
+    CONCURRENT_SKIP_LIST,
+    OFF_HEAP,
+    /**
+     * Primitive long keys, see {@link org.shulgin.tree.LongMemTable}. Requires {@code Codecs.LONG}
+     * as the key codec.
+     */
+    LONG
+}
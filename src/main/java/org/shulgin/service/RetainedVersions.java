@@ -0,0 +1,91 @@
+package org.shulgin.service;
+
+import org.shulgin.tree.SequencedEntry;
+
+import java.util.*;
+
+/**
+ * Groups versions, given in key order and newest first within a key, by key and keeps only
+ * the ones a snapshot can still read: the newest, and each older one that is the newest
+ * version some open snapshot sees. A version no open snapshot predates is returned with
+ * sequence 0, which every snapshot, open or future, sees the same way. With
+ * {@code dropTombstones}, for outputs nothing older lies under, deletions left as a key's
+ * oldest versions are dropped too, and so are keys left with no version at all.
+ */
+final class RetainedVersions<K,V> implements Iterator<List<SequencedEntry<K,V>>> {
+    private final Iterator<? extends SequencedEntry<K,V>> versions;
+    private final Comparator<? super K> comparator;
+    private final long[] snapshots;
+    private final boolean dropTombstones;
+    private SequencedEntry<K,V> pending;
+    private List<SequencedEntry<K,V>> next;
+
+    /**
+     * @param snapshots the sequences of the open snapshots, sorted
+     */
+    RetainedVersions(Iterator<? extends SequencedEntry<K,V>> versions, Comparator<? super K> comparator,
+                     long[] snapshots, boolean dropTombstones) {
+        this.versions = versions;
+        this.comparator = comparator;
+        this.snapshots = snapshots;
+        this.dropTombstones = dropTombstones;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(next == null && (pending != null || versions.hasNext())) {
+            next = nextKey();
+        }
+        return next != null;
+    }
+
+    @Override
+    public List<SequencedEntry<K,V>> next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<SequencedEntry<K,V>> result = next;
+        next = null;
+        return result;
+    }
+
+    // The retained versions of the next key, or null when none is retained.
+    private List<SequencedEntry<K,V>> nextKey() {
+        SequencedEntry<K,V> newer = pending != null ? pending : versions.next();
+        pending = null;
+        List<SequencedEntry<K,V>> kept = new ArrayList<>(1);
+        kept.add(retained(newer));
+        while(versions.hasNext()) {
+            SequencedEntry<K,V> older = versions.next();
+            if(comparator.compare(older.getKey(), newer.getKey()) != 0) {
+                pending = older;
+                break;
+            }
+            if(visibleToSnapshot(older.sequence(), newer.sequence())) {
+                kept.add(retained(older));
+            }
+            newer = older;
+        }
+        if(dropTombstones) {
+            while(!kept.isEmpty() && kept.get(kept.size() - 1).getValue() == null) {
+                kept.remove(kept.size() - 1);
+            }
+        }
+        return kept.isEmpty() ? null : kept;
+    }
+
+    // Whether a snapshot sees the version with the older sequence, i.e. some open snapshot
+    // lies in [older, newer).
+    private boolean visibleToSnapshot(long older, long newer) {
+        int index = Arrays.binarySearch(snapshots, older);
+        int ceiling = index >= 0 ? index : -index - 1;
+        return ceiling < snapshots.length && snapshots[ceiling] < newer;
+    }
+
+    private SequencedEntry<K,V> retained(SequencedEntry<K,V> version) {
+        if(version.sequence() == 0 || (snapshots.length > 0 && snapshots[0] < version.sequence())) {
+            return version;
+        }
+        return new SequencedEntry<>(version.getKey(), version.getValue(), 0);
+    }
+}
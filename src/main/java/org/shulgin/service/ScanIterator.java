@@ -0,0 +1,67 @@
+package org.shulgin.service;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Result of {@link Store#scan} and {@link ShardedStore#scan}. Entries are produced on demand
+ * from the merged sources; deleted keys are dropped. The scanned files stay open until the
+ * iterator is exhausted or closed, so a scan that is abandoned early must be closed.
+ */
+public class ScanIterator<K,V> implements Iterator<Map.Entry<K,V>>, Closeable {
+    private final Iterator<Map.Entry<K,V>> merged;
+    private final Runnable release;
+    private Map.Entry<K,V> next;
+    private boolean closed = false;
+
+    // release runs once, when the iterator is exhausted or closed.
+    ScanIterator(Iterator<Map.Entry<K,V>> merged, Runnable release) {
+        this.merged = merged;
+        this.release = release;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next != null) {
+            return true;
+        }
+        if(closed) {
+            return false;
+        }
+        try {
+            while(merged.hasNext()) {
+                Map.Entry<K,V> entry = merged.next();
+                if(entry.getValue() != null) {
+                    next = entry;
+                    return true;
+                }
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Map.Entry<K,V> next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<K,V> result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        release.run();
+    }
+}
@@ -0,0 +1,249 @@
+package org.shulgin.service;
+
+import org.shulgin.codec.Codec;
+import org.shulgin.codec.Codecs;
+import org.shulgin.exception.CreateDirectoryException;
+import org.shulgin.sstable.BloomFilter;
+import org.shulgin.sstable.MergingIterator;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Partitions keys by hash over independent {@link Store}s, so writes to different shards
+ * share no lock, MemTable, log or flush queue. Shard {@code i} lives in
+ * {@code <pathToSaveData>/shard<i>} and every shard gets the full {@code options}, so
+ * per-store budgets such as the block cache and MemTable sizes add up over the shards.
+ *
+ * <p>A key's shard is a hash of its encoded form, so a directory must always be reopened
+ * with the same number of shards and the same key codec. Single-key operations are exactly
+ * those of the owning shard. A batch is split per shard and is atomic within each shard
+ * only, and a scan merges the shards' scans, each of which sees its shard as of the moment
+ * the scan started.
+ */
+public class ShardedStore<K,V> implements Closeable {
+    private static final String SHARD_PREFIX = "shard";
+    private static final Pattern SHARD_DIRECTORY = Pattern.compile(SHARD_PREFIX + "\\d+");
+
+    private final List<Store<K,V>> shards;
+    private final Codec<K> keyCodec;
+    private final Comparator<? super K> comparator;
+
+    public ShardedStore(int shardCount, int memTableSize, String pathToSaveData, String defaultFileName,
+                        StoreOptions options) throws CreateDirectoryException, IOException {
+        this(shardCount, memTableSize, pathToSaveData, defaultFileName, options,
+                Codecs.serializable(), Codecs.serializable());
+    }
+
+    /**
+     * Opens the shards in parallel. If any of them fails to open, the ones already open are
+     * closed and the first failure is thrown.
+     */
+    public ShardedStore(int shardCount, int memTableSize, String pathToSaveData, String defaultFileName,
+                        StoreOptions options, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws CreateDirectoryException, IOException {
+        if(shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        File directory = new File(pathToSaveData);
+        if(!directory.exists() && !directory.mkdir()) {
+            throw new CreateDirectoryException();
+        }
+        String[] existing = directory.list((parent, name) -> SHARD_DIRECTORY.matcher(name).matches());
+        if(existing != null && existing.length > 0 && existing.length != shardCount) {
+            throw new IllegalArgumentException(directory + " holds " + existing.length
+                    + " shards, not " + shardCount);
+        }
+        this.keyCodec = keyCodec;
+        this.comparator = keyCodec.comparator();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(shardCount, Runtime.getRuntime().availableProcessors()));
+        List<Future<Store<K,V>>> opening = new ArrayList<>(shardCount);
+        try {
+            for(int i = 0; i < shardCount; i++) {
+                String shardPath = new File(directory, SHARD_PREFIX + i).getPath();
+                opening.add(executor.submit(() -> new Store<>(memTableSize, shardPath, defaultFileName,
+                        options, keyCodec, valueCodec)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Store<K,V>> opened = new ArrayList<>(shardCount);
+        Throwable failure = null;
+        for(Future<Store<K,V>> future : opening) {
+            try {
+                opened.add(future.get());
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : new InterruptedIOException("Interrupted while opening shards");
+            }
+        }
+        if(failure != null) {
+            for(Store<K,V> shard : opened) {
+                try {
+                    shard.close();
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+            if(failure instanceof IOException e) {
+                throw e;
+            }
+            if(failure instanceof CreateDirectoryException e) {
+                throw e;
+            }
+            if(failure instanceof RuntimeException e) {
+                throw e;
+            }
+            throw new IOException(failure);
+        }
+        this.shards = Collections.unmodifiableList(opened);
+    }
+
+    public void put(K key, V value) {
+        shardFor(key).put(key, value);
+    }
+
+    public void delete(K key) {
+        shardFor(key).delete(key);
+    }
+
+    public V get(K key) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * Splits the batch into one batch per shard, keeping the order of operations on each
+     * key, and writes them shard by shard. A failure part way leaves the shards already
+     * written with their part of the batch.
+     */
+    public void write(WriteBatch<K,V> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        List<WriteBatch<K,V>> parts = new ArrayList<>(Collections.nCopies(shards.size(), null));
+        for(Map.Entry<K,V> operation : batch.operations()) {
+            int shard = shardIndex(operation.getKey());
+            WriteBatch<K,V> part = parts.get(shard);
+            if(part == null) {
+                part = new WriteBatch<>();
+                parts.set(shard, part);
+            }
+            if(operation.getValue() != null) {
+                part.put(operation.getKey(), operation.getValue());
+            } else {
+                part.delete(operation.getKey());
+            }
+        }
+        for(int i = 0; i < parts.size(); i++) {
+            if(parts.get(i) != null) {
+                shards.get(i).write(parts.get(i));
+            }
+        }
+    }
+
+    /**
+     * Looks the keys up shard by shard, each shard getting only its own keys in one
+     * {@link Store#multiGet} call.
+     */
+    public SortedMap<K,V> multiGet(Collection<K> keys) {
+        List<List<K>> parts = new ArrayList<>(shards.size());
+        for(int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for(K key : keys) {
+            parts.get(shardIndex(key)).add(key);
+        }
+        SortedMap<K,V> result = new TreeMap<>(comparator);
+        for(int i = 0; i < parts.size(); i++) {
+            if(!parts.get(i).isEmpty()) {
+                result.putAll(shards.get(i).multiGet(parts.get(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges the scans of every shard into one stream in key order. Shards hold disjoint
+     * keys, so the merge never has to choose between entries.
+     */
+    public ScanIterator<K,V> scan(K from, K to) {
+        List<ScanIterator<K,V>> parts = new ArrayList<>(shards.size());
+        try {
+            for(Store<K,V> shard : shards) {
+                parts.add(shard.scan(from, to));
+            }
+            return new ScanIterator<>(new MergingIterator<>(parts, comparator), () -> {
+                for(ScanIterator<K,V> part : parts) {
+                    part.close();
+                }
+            });
+        } catch (RuntimeException e) {
+            for(ScanIterator<K,V> part : parts) {
+                part.close();
+            }
+            throw e;
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Metrics of every shard, in shard order.
+     */
+    public List<StoreMetrics> metrics() {
+        List<StoreMetrics> metrics = new ArrayList<>(shards.size());
+        for(Store<K,V> shard : shards) {
+            metrics.add(shard.metrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Closes every shard, even if closing one of them fails, and throws the first failure.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for(Store<K,V> shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if(failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    private Store<K,V> shardFor(K key) {
+        return shards.get(shardIndex(key));
+    }
+
+    private int shardIndex(K key) {
+        if(shards.size() == 1) {
+            return 0;
+        }
+        try {
+            return (int) Long.remainderUnsigned(BloomFilter.hash(keyCodec.encode(key)), shards.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.shulgin.service;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.SortedMap;
+
+/**
+ * Point-in-time view returned by {@link Store#snapshot()}. Reads see the store as it was at
+ * {@link #sequence()}, whatever is written, flushed or compacted afterwards. Until it is
+ * closed, the store keeps the versions of keys the snapshot can still read.
+ */
+public class Snapshot<K,V> implements Closeable {
+    private final Store<K,V> store;
+    private final long sequence;
+    private boolean closed = false;
+
+    Snapshot(Store<K,V> store, long sequence) {
+        this.store = store;
+        this.sequence = sequence;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public V get(K key) {
+        checkOpen();
+        return store.get(key, sequence);
+    }
+
+    public SortedMap<K,V> multiGet(Collection<K> keys) {
+        checkOpen();
+        return store.multiGet(keys, sequence);
+    }
+
+    /**
+     * Same as {@link Store#scan}, as of the snapshot. The scan stays valid if the snapshot is
+     * closed before the scan is.
+     */
+    public ScanIterator<K,V> scan(K from, K to) {
+        checkOpen();
+        return store.scan(from, to, sequence);
+    }
+
+    @Override
+    public synchronized void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        store.releaseSnapshot(sequence);
+    }
+
+    private synchronized void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+    }
+}
@@ -1,85 +1,1205 @@
 package org.shulgin.service;
 
+import org.shulgin.codec.Codec;
+import org.shulgin.codec.Codecs;
+import org.shulgin.compaction.*;
+import org.shulgin.exception.CorruptedFileException;
 import org.shulgin.exception.CreateDirectoryException;
 import org.shulgin.exception.CreateFileException;
+import org.shulgin.metrics.LatencyHistogram;
+import org.shulgin.sstable.*;
+import org.shulgin.tree.ConcurrentMemTable;
 import org.shulgin.tree.IMemTable;
+import org.shulgin.tree.LongMemTable;
 import org.shulgin.tree.MemTable;
+import org.shulgin.tree.OffHeapMemTable;
+import org.shulgin.tree.SequencedEntry;
+import org.shulgin.wal.LogRecord;
+import org.shulgin.wal.WriteAheadLog;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjLongConsumer;
 import java.util.regex.Pattern;
 
-public class Store <K,V>{
-    private IMemTable<K,V> memTable;
+public class Store <K,V> implements Closeable {
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String LOG_SUFFIX = "_log";
+    private static final String MANIFEST_SUFFIX = "_manifest";
+    private static final int LOG_STRIPES = 64;
+    private static final long FLUSH_RETRY_MILLIS = 100;
+    private static final long MAX_FLUSH_RETRY_MILLIS = 10_000;
+    private static final int FLUSH_ATTEMPTS_ON_CLOSE = 3;
+
+    private volatile IMemTable<K,V> memTable;
     private final int memTableSize;
     private final String pathToSaveData;
     private final String defaultFileName;
-    private final BlockingQueue<IMemTable<K,V>> blockingMemTablesQueue;
-    private final Object lock = new Object();
+    private final StoreOptions options;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final BlockingQueue<ImmutableMemTable<K,V>> blockingMemTablesQueue;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StampedLock batchLock = new StampedLock();
+    private final Object[] logStripes = new Object[LOG_STRIPES];
+    private final Object filesLock = new Object();
+    private final Object compactionSignal = new Object();
+    private final Object flushSignal = new Object();
+    private final LongAdder writeSlowdowns = new LongAdder();
+    private final LongAdder writeStops = new LongAdder();
+    private final LongAdder writeStallNanos = new LongAdder();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LongAdder memTableHits = new LongAdder();
+    private final LongAdder fileHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder fileProbes = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder flushBytes = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder backgroundErrors = new LongAdder();
+    private final LongAdder readErrors = new LongAdder();
+    private volatile Throwable lastBackgroundError;
+    private final Comparator<? super K> comparator;
+    private final Comparator<SSTableReader<K,V>> fileOrder;
+    private final AtomicInteger nextFileIndex;
+    private final ImmutableMemTable<K,V> closeMarker = new ImmutableMemTable<>(new MemTable<>(), -1, -1, -1);
+    private final AtomicLong lastSequence = new AtomicLong();
+    // sequence up to which every write is applied; a batch advances it only once all of it is in
+    private final AtomicLong visibleSequence = new AtomicLong();
+    // sequence of every open snapshot and scan of one, with its count
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+    private volatile long newestSnapshot = -1;
+    private final Map<ImmutableMemTable<K,V>, SSTableReader<K,V>> completedFlushes = new HashMap<>();
+    private final WriteAheadLog wal;
+    private final Manifest manifest;
+    private final BlockCache blockCache;
+    private final List<WriteMemTableThread> writeMemTableThreads;
+    private final CompactionThread compactionThread;
+    private final ObjectName mbeanName;
+    private volatile boolean closed = false;
+    private volatile boolean stopped = false;
+
+    private volatile View<K,V> view;
+
+    public Store(int memTableSize, String pathToSaveData, String defaultFileName) throws CreateDirectoryException, IOException{
+        this(memTableSize, pathToSaveData, defaultFileName, new StoreOptions());
+    }
 
-    private final List<File> files;
+    public Store(int memTableSize, String pathToSaveData, String defaultFileName,
+                 StoreOptions options) throws CreateDirectoryException, IOException{
+        this(memTableSize, pathToSaveData, defaultFileName, options, Codecs.serializable(), Codecs.serializable());
+    }
 
-    public Store(int memTableSize, String pathToSaveData, String defaultFileName) throws CreateDirectoryException{
-        this.memTable = new MemTable<>();
+    /**
+     * Keys and values are encoded with the given codecs in the log and in flushed files, and
+     * keys are ordered by the key codec's comparator. A directory must always be reopened
+     * with the codecs it was written with.
+     */
+    public Store(int memTableSize, String pathToSaveData, String defaultFileName, StoreOptions options,
+                 Codec<K> keyCodec, Codec<V> valueCodec) throws CreateDirectoryException, IOException{
+        if(options.getMemTableType() == MemTableType.LONG && keyCodec != Codecs.LONG) {
+            throw new IllegalArgumentException("MemTableType.LONG requires the Codecs.LONG key codec");
+        }
+        this.options = options;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.comparator = keyCodec.comparator();
+        this.blockCache = options.getBlockCacheBytes() > 0 ? new BlockCache(options.getBlockCacheBytes()) : null;
+        this.memTable = newMemTable();
+        for(int i = 0; i < LOG_STRIPES; i++) {
+            logStripes[i] = new Object();
+        }
+        this.fileOrder = (first, second) -> {
+            if(first.level() != second.level()) {
+                return Integer.compare(second.level(), first.level());
+            }
+            if(first.level() == 0) {
+                return Long.compare(first.sequence(), second.sequence());
+            }
+            return comparator.compare(first.firstKey(), second.firstKey());
+        };
         this.memTableSize = memTableSize;
         this.pathToSaveData = pathToSaveData;
         this.defaultFileName = defaultFileName;
-        this.blockingMemTablesQueue = new ArrayBlockingQueue<>(100);
-        this.files = getKeyValueStoreFiles(new File(pathToSaveData));
+        this.blockingMemTablesQueue = new LinkedBlockingQueue<>();
 
-        WriteMemTableThread writeMemTableThread;
+        List<File> storeFiles = getKeyValueStoreFiles(new File(pathToSaveData));
+        this.nextFileIndex = new AtomicInteger(storeFiles.isEmpty() ? 0
+                : getIndexFile(storeFiles.get(storeFiles.size() - 1)) + 1);
+        this.manifest = new Manifest(new File(pathToSaveData, defaultFileName + MANIFEST_SUFFIX));
         try {
-            writeMemTableThread = new WriteMemTableThread(blockingMemTablesQueue, files, pathToSaveData, defaultFileName);
+            this.view = new View<>(List.of(), openFiles(storeFiles));
+        } catch (IOException e) {
+            manifest.close();
+            throw e;
+        }
+        for(SSTableReader<K,V> reader : view.files()) {
+            lastSequence.set(Math.max(lastSequence.get(), reader.sequence()));
+        }
+
+        writeMemTableThreads = new ArrayList<>(options.getFlushThreads());
+        for(int i = 0; i < Math.max(1, options.getFlushThreads()); i++) {
+            writeMemTableThreads.add(new WriteMemTableThread(blockingMemTablesQueue, pathToSaveData, defaultFileName));
+        }
+        if(options.isWalEnabled()) {
+            this.wal = new WriteAheadLog(new File(pathToSaveData), defaultFileName + LOG_SUFFIX,
+                    options.getWalSyncMode(), options.getWalSyncIntervalMillis(), manifest.flushedLogSegment() + 1);
+            try {
+                recover(wal.recoveredSegments());
+            } catch (CreateFileException e) {
+                wal.close();
+                throw new IOException(e);
+            }
+        } else {
+            this.wal = null;
+        }
+        visibleSequence.set(lastSequence.get());
+        for(WriteMemTableThread writeMemTableThread : writeMemTableThreads) {
             writeMemTableThread.start();
-        } catch (Exception ignored) { }
+        }
+
+        CompactionPolicy<K,V> policy = switch (options.getCompactionStyle()) {
+            case SIZE_TIERED -> new SizeTieredCompactionPolicy<>(options.getSizeTieredMinThreshold(),
+                    options.getSizeTieredMaxThreshold());
+            case LEVELED -> new LeveledCompactionPolicy<>(comparator, options.getLevel0FileTrigger(),
+                    options.getLevelBaseBytes(), options.getLevelMultiplier(), options.getTargetFileSize());
+            case NONE -> null;
+        };
+        if(policy != null) {
+            compactionThread = new CompactionThread(policy, new RateLimiter(options.getCompactionBytesPerSecond()));
+            compactionThread.start();
+        } else {
+            compactionThread = null;
+        }
+        mbeanName = options.isJmxEnabled() ? registerMBean() : null;
     }
 
     public void put(K key, V value) {
-        synchronized (lock) {
-            memTable.put(key, value);
-            if(memTable.size() == memTableSize) {
-                IMemTable<K,V> fullMemTable = memTable;
-                memTable = new MemTable<>();
+        if(key == null || value == null) {
+            return;
+        }
+        write(key, value);
+    }
+
+    /**
+     * Deletes a key by writing a tombstone. The tombstone hides older versions of the key
+     * in the immutable MemTables and files until compaction drops them together.
+     */
+    public void delete(K key) {
+        if(key == null) {
+            return;
+        }
+        write(key, null);
+    }
+
+    /**
+     * Primitive form of {@link #put(Object, Object)} for stores opened with
+     * {@link MemTableType#LONG}: the key is never boxed on its way into the MemTable.
+     * Other stores box it and take the regular path.
+     */
+    public void putLong(long key, V value) {
+        if(value == null) {
+            return;
+        }
+        if(options.getMemTableType() != MemTableType.LONG) {
+            put(boxed(key), value);
+            return;
+        }
+        write(wal != null ? Codecs.encodeLong(key) : null, value,
+                (table, sequence) -> longTable(table).putLong(key, value, sequence, newestSnapshot));
+    }
+
+    public void deleteLong(long key) {
+        if(options.getMemTableType() != MemTableType.LONG) {
+            delete(boxed(key));
+            return;
+        }
+        write(wal != null ? Codecs.encodeLong(key) : null, null,
+                (table, sequence) -> longTable(table).putLongTombstone(key, sequence, newestSnapshot));
+    }
+
+    private void write(K key, V value) {
+        try {
+            write(wal != null ? keyCodec.encode(key) : null, value, (table, sequence) -> apply(table, key, value, sequence));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The sequence is taken under the key's log stripe, so the versions of a key are ordered
+    // by sequence the way the log orders them.
+    private void write(byte[] keyBytes, V value, ObjLongConsumer<IMemTable<K,V>> apply) {
+        long start = System.nanoTime();
+        try {
+            byte[] valueBytes = wal != null && value != null ? valueCodec.encode(value) : null;
+            byte type = value != null ? LogRecord.PUT : LogRecord.DELETE;
+            long logPosition = 0;
+            IMemTable<K,V> table;
+            throttle();
+            long lockStart = System.nanoTime();
+            lock.readLock().lock();
+            lockWaitNanos.add(System.nanoTime() - lockStart);
+            try {
+                if(closed) {
+                    throw new IllegalStateException("Store is closed");
+                }
+                table = memTable;
+                long sequence;
+                if(wal != null) {
+                    synchronized (logStripes[(Arrays.hashCode(keyBytes) & 0x7fffffff) % LOG_STRIPES]) {
+                        logPosition = wal.append(type, keyBytes, valueBytes);
+                        sequence = lastSequence.incrementAndGet();
+                        apply.accept(table, sequence);
+                    }
+                } else {
+                    sequence = lastSequence.incrementAndGet();
+                    apply.accept(table, sequence);
+                }
+                visibleSequence.accumulateAndGet(sequence, Math::max);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if(table.hiddenSize() >= memTableSize || table.byteSize() >= options.getMemTableBytes()) {
+                rotate(table);
+            }
+            if(wal != null) {
+                wal.awaitDurable(logPosition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writeLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Applies every operation of the batch under a single acquisition of the store lock and
+     * logs it as a single record, so after a crash either all of it is replayed or none.
+     * Point reads and scans see either none or all of the batch. The MemTable is rotated at
+     * most once, after the whole batch is in.
+     */
+    public void write(WriteBatch<K,V> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<Map.Entry<K,V>> operations = batch.operations();
+            List<LogRecord> records = null;
+            if(wal != null) {
+                records = new ArrayList<>(operations.size());
+                for(Map.Entry<K,V> operation : operations) {
+                    V value = operation.getValue();
+                    records.add(new LogRecord(value != null ? LogRecord.PUT : LogRecord.DELETE,
+                            keyCodec.encode(operation.getKey()), value != null ? valueCodec.encode(value) : null));
+                }
+            }
+            long logPosition = 0;
+            IMemTable<K,V> table;
+            throttle();
+            long lockStart = System.nanoTime();
+            lock.writeLock().lock();
+            lockWaitNanos.add(System.nanoTime() - lockStart);
+            try {
+                if(closed) {
+                    throw new IllegalStateException("Store is closed");
+                }
+                table = memTable;
+                long sequence = lastSequence.getAndAdd(operations.size());
+                if(wal != null) {
+                    logPosition = wal.append(records);
+                }
+                long stamp = batchLock.writeLock();
                 try {
-                    blockingMemTablesQueue.put(fullMemTable);
-                } catch (InterruptedException ignored) { }
+                    for(Map.Entry<K,V> operation : operations) {
+                        apply(table, operation.getKey(), operation.getValue(), ++sequence);
+                    }
+                    visibleSequence.set(sequence);
+                } finally {
+                    batchLock.unlockWrite(stamp);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if(table.hiddenSize() >= memTableSize || table.byteSize() >= options.getMemTableBytes()) {
+                rotate(table);
             }
+            if(wal != null) {
+                wal.awaitDurable(logPosition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    private void apply(IMemTable<K,V> table, K key, V value, long sequence) {
+        if(value != null) {
+            table.put(key, value, sequence, newestSnapshot);
+        } else {
+            table.putTombstone(key, sequence, newestSnapshot);
+        }
+    }
+
+    /**
+     * Returns the latest value of the key, or null if it has none. A flushed file that cannot
+     * be read fails the get with an {@link UncheckedIOException}: answering from older files
+     * could return a value the unreadable one overrides.
+     */
     public V get(K key) {
-        synchronized (lock) {
-            V value = memTable.get(key);
-            if(value != null) {
+        long start = System.nanoTime();
+        long stamp = batchLock.tryOptimisticRead();
+        V value = read(memTable, view, key, Long.MAX_VALUE);
+        if(!batchLock.validate(stamp)) {
+            stamp = batchLock.readLock();
+            try {
+                value = read(memTable, view, key, Long.MAX_VALUE);
+            } finally {
+                batchLock.unlockRead(stamp);
+            }
+        }
+        getLatency.record(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * Same as {@link #get(Object)} as of a snapshot, for {@link Snapshot#get}. A batch is
+     * never split by a snapshot, so this needs no batch lock.
+     */
+    V get(K key, long snapshot) {
+        long start = System.nanoTime();
+        V value = read(memTable, view, key, snapshot);
+        getLatency.record(System.nanoTime() - start);
+        return value;
+    }
+
+    // Long.MAX_VALUE reads the latest versions, without looking at sequences.
+    private V read(IMemTable<K,V> active, View<K,V> current, K key, long snapshot) {
+        List<ImmutableMemTable<K,V>> immutables = current.immutables();
+        for(int i = immutables.size(); i >= 0; i--) {
+            IMemTable<K,V> table = i == immutables.size() ? active : immutables.get(i).table();
+            // a table is released once its flush is published, so a newer view has its file
+            if(!table.acquire()) {
+                return read(memTable, view, key, snapshot);
+            }
+            try {
+                if(snapshot == Long.MAX_VALUE) {
+                    V value = table.get(key);
+                    if(value != null || table.containsKey(key)) {
+                        memTableHits.increment();
+                        return value;
+                    }
+                } else {
+                    SequencedEntry<K,V> version = table.find(key, snapshot);
+                    if(version != null) {
+                        memTableHits.increment();
+                        return version.getValue();
+                    }
+                }
+            } finally {
+                table.release();
+            }
+        }
+
+        byte[] keyBytes;
+        try {
+            keyBytes = keyCodec.encode(key);
+        } catch (IOException e) {
+            readErrors.increment();
+            throw new UncheckedIOException(e);
+        }
+        return getFromFiles(current, key, keyBytes, snapshot);
+    }
+
+    /**
+     * Primitive form of {@link #get(Object)} for stores opened with {@link MemTableType#LONG}.
+     * The MemTables are searched without boxing, and flushed files are searched on the
+     * encoded key alone.
+     */
+    public V getLong(long key) {
+        if(options.getMemTableType() != MemTableType.LONG) {
+            return get(boxed(key));
+        }
+        long start = System.nanoTime();
+        long stamp = batchLock.tryOptimisticRead();
+        V value = readLong(key);
+        if(!batchLock.validate(stamp)) {
+            stamp = batchLock.readLock();
+            try {
+                value = readLong(key);
+            } finally {
+                batchLock.unlockRead(stamp);
+            }
+        }
+        getLatency.record(System.nanoTime() - start);
+        return value;
+    }
+
+    private V readLong(long key) {
+        LongMemTable<V> active = longTable(memTable);
+        V value = active.getLong(key);
+        if(value != null || active.containsLong(key)) {
+            memTableHits.increment();
+            return value;
+        }
+        View<K,V> current = view;
+        List<ImmutableMemTable<K,V>> immutables = current.immutables();
+        for(int i = immutables.size() - 1; i >= 0; i--) {
+            LongMemTable<V> table = longTable(immutables.get(i).table());
+            value = table.getLong(key);
+            if(value != null || table.containsLong(key)) {
+                memTableHits.increment();
                 return value;
             }
-            for(int i = files.size() - 1; i >= 0; i--) {
-                try(FileInputStream fis = new FileInputStream(files.get(i));
-                    ObjectInputStream ois = new ObjectInputStream(fis)) {
-                    K firstKey = (K)ois.readObject();
-                    K lastKey = (K)ois.readObject();
-                    Comparator<? super K> comparator = memTable.comparator();
-                    if(comparator.compare(key, firstKey) >= 0
-                            && comparator.compare(key, lastKey) <= -1) {
-                        IMemTable<K,V> currMemTable = (IMemTable<K, V>) ois.readObject();
-                        V val = currMemTable.get(key);
-
-                        if(val != null) {
-                            return val;
-                        }
+        }
+        return getFromFiles(current, null, Codecs.encodeLong(key), Long.MAX_VALUE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K boxed(long key) {
+        return (K) Long.valueOf(key);
+    }
+
+    // Only called with MemTableType.LONG, whose tables are all LongMemTables.
+    @SuppressWarnings("unchecked")
+    private LongMemTable<V> longTable(IMemTable<K,V> table) {
+        return (LongMemTable<V>) table;
+    }
+
+    // key may be null when the key codec is order preserving, see SSTableReader.find.
+    private V getFromFiles(View<K,V> current, K key, byte[] keyBytes, long snapshot) {
+        long keyHash = BloomFilter.hash(keyBytes);
+
+        boolean retry;
+        do {
+            retry = false;
+            List<SSTableReader<K,V>> currentFiles = current.files();
+            for(int i = currentFiles.size() - 1; i >= 0; i--) {
+                SSTableReader<K,V> reader = currentFiles.get(i);
+                // the filter may be loaded lazily from the file, so it is only probed while
+                // the reader is held
+                if(!reader.acquire()) {
+                    retry = !stopped;
+                    current = view;
+                    break;
+                }
+                try {
+                    if(!reader.mightContain(key, keyBytes, keyHash)) {
+                        continue;
+                    }
+                    fileProbes.increment();
+                    Map.Entry<K,V> entry = reader.search(key, keyBytes, snapshot);
+
+                    if(entry != null) {
+                        fileHits.increment();
+                        return entry.getValue();
                     }
-                } catch (IOException | ClassNotFoundException ignored) { }
+                } catch (IOException e) {
+                    // older files may hold a value this one overrides, so there is no falling back
+                    readErrors.increment();
+                    throw new UncheckedIOException(e);
+                } finally {
+                    reader.release();
+                }
+            }
+        } while(retry);
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Looks up many keys at once and returns the live ones in key order. The keys are sorted
+     * once and each MemTable is probed only for the keys still unresolved. Each file is then
+     * visited at most once for all the keys it may hold, with its blocks read in file order.
+     */
+    public SortedMap<K,V> multiGet(Collection<K> keys) {
+        SortedMap<K,V> result = new TreeMap<>(comparator);
+        long stamp = batchLock.tryOptimisticRead();
+        readAll(memTable, view, keys, result, Long.MAX_VALUE);
+        if(batchLock.validate(stamp)) {
+            return result;
+        }
+        result.clear();
+        stamp = batchLock.readLock();
+        try {
+            readAll(memTable, view, keys, result, Long.MAX_VALUE);
+        } finally {
+            batchLock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    private void readAll(IMemTable<K,V> active, View<K,V> current, Collection<K> keys, Map<K,V> result,
+                         long snapshot) {
+        SortedSet<K> sorted = new TreeSet<>(comparator);
+        for(K key : keys) {
+            if(key != null) {
+                sorted.add(key);
+            }
+        }
+        List<K> pending = new ArrayList<>(sorted);
+        List<ImmutableMemTable<K,V>> immutables = current.immutables();
+        for(int i = immutables.size(); i >= 0 && !pending.isEmpty(); i--) {
+            IMemTable<K,V> table = i == immutables.size() ? active : immutables.get(i).table();
+            if(!table.acquire()) {
+                result.clear();
+                readAll(memTable, view, keys, result, snapshot);
+                return;
+            }
+            try {
+                pending = probe(table, pending, result, snapshot);
+            } finally {
+                table.release();
+            }
+        }
+        if(pending.isEmpty()) {
+            return;
+        }
+
+        List<K> fileKeys = new ArrayList<>(pending.size());
+        List<byte[]> keyBytes = new ArrayList<>(pending.size());
+        for(K key : pending) {
+            try {
+                keyBytes.add(keyCodec.encode(key));
+                fileKeys.add(key);
+            } catch (IOException e) {
+                readErrors.increment();
+                throw new UncheckedIOException(e);
+            }
+        }
+        long[] keyHashes = new long[fileKeys.size()];
+        for(int i = 0; i < keyHashes.length; i++) {
+            keyHashes[i] = BloomFilter.hash(keyBytes.get(i));
+        }
+
+        boolean retry;
+        do {
+            retry = false;
+            List<SSTableReader<K,V>> currentFiles = current.files();
+            for(int i = currentFiles.size() - 1; i >= 0 && !fileKeys.isEmpty(); i--) {
+                SSTableReader<K,V> reader = currentFiles.get(i);
+                if(!reader.acquire()) {
+                    retry = !stopped;
+                    current = view;
+                    break;
+                }
+                List<Map.Entry<K,V>> entries;
+                try {
+                    entries = reader.findAll(fileKeys, keyBytes, keyHashes, snapshot);
+                } catch (IOException e) {
+                    readErrors.increment();
+                    throw new UncheckedIOException(e);
+                } finally {
+                    reader.release();
+                }
+                List<K> unresolvedKeys = new ArrayList<>(fileKeys.size());
+                List<byte[]> unresolvedBytes = new ArrayList<>(fileKeys.size());
+                int unresolved = 0;
+                for(int j = 0; j < entries.size(); j++) {
+                    Map.Entry<K,V> entry = entries.get(j);
+                    if(entry == null) {
+                        unresolvedKeys.add(fileKeys.get(j));
+                        unresolvedBytes.add(keyBytes.get(j));
+                        keyHashes[unresolved++] = keyHashes[j];
+                    } else if(entry.getValue() != null) {
+                        result.put(fileKeys.get(j), entry.getValue());
+                    }
+                }
+                fileKeys = unresolvedKeys;
+                keyBytes = unresolvedBytes;
             }
+        } while(retry);
+    }
+
+    // Resolves the keys the table has an entry for and returns the ones it does not.
+    private List<K> probe(IMemTable<K,V> table, List<K> keys, Map<K,V> result, long snapshot) {
+        List<K> unresolved = new ArrayList<>(keys.size());
+        for(K key : keys) {
+            if(snapshot != Long.MAX_VALUE) {
+                SequencedEntry<K,V> version = table.find(key, snapshot);
+                if(version == null) {
+                    unresolved.add(key);
+                } else if(version.getValue() != null) {
+                    result.put(key, version.getValue());
+                }
+                continue;
+            }
+            V value = table.get(key);
+            if(value != null) {
+                result.put(key, value);
+            } else if(!table.containsKey(key)) {
+                unresolved.add(key);
+            }
+        }
+        return unresolved;
+    }
+
+    SortedMap<K,V> multiGet(Collection<K> keys, long snapshot) {
+        SortedMap<K,V> result = new TreeMap<>(comparator);
+        readAll(memTable, view, keys, result, snapshot);
+        return result;
+    }
+
+    /**
+     * Returns a consistent, read-only view of the store that includes every write up to
+     * {@link Snapshot#sequence()} and none after it. Taking one only registers its sequence:
+     * reads pick, in every table and file, the newest version written at or before it, and
+     * until the snapshot is closed MemTables, flushes and compactions keep the versions it
+     * can still read. Writers are not blocked while the snapshot is read.
+     */
+    public Snapshot<K,V> snapshot() {
+        lock.writeLock().lock();
+        try {
+            if(closed) {
+                throw new IllegalStateException("Store is closed");
+            }
+            // no write is half applied under the write lock, so every one up to the sequence is in
+            long sequence = lastSequence.get();
+            registerSnapshot(sequence);
+            return new Snapshot<>(this, sequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
+    private void registerSnapshot(long sequence) {
+        synchronized (snapshots) {
+            snapshots.merge(sequence, 1, Integer::sum);
+            newestSnapshot = snapshots.lastKey();
+        }
+    }
+
+    // A write racing with the release may still keep a version for the snapshot, which only
+    // costs the memory until the table is flushed.
+    void releaseSnapshot(long sequence) {
+        synchronized (snapshots) {
+            snapshots.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+            newestSnapshot = snapshots.isEmpty() ? -1 : snapshots.lastKey();
+        }
+    }
+
+    // Sorted sequences of the open snapshots. A snapshot taken later predates no write
+    // already made, so a flush or compaction can keep to the ones open when it starts.
+    private long[] openSnapshots() {
+        synchronized (snapshots) {
+            long[] sequences = new long[snapshots.size()];
+            int i = 0;
+            for(long sequence : snapshots.keySet()) {
+                sequences[i++] = sequence;
+            }
+            return sequences;
+        }
+    }
+
+    /**
+     * Sequence number of the latest write. Every put, delete and batch operation takes the
+     * next one, and flushed files record the last one they hold, so it keeps growing across
+     * restarts.
+     */
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * Returns the entries with keys in [from, to) in key order; a null bound is open.
+     * Sources are merged newest first, so the latest version of each key wins. The scan reads
+     * as of the writes applied when it starts, the way a snapshot does, so a batch applied
+     * while it runs is either entirely in it or not at all.
+     */
+    public ScanIterator<K,V> scan(K from, K to) {
+        long sequence;
+        // registered under the write lock, so that no write already under way drops a
+        // version the scan reads
+        lock.writeLock().lock();
+        try {
+            sequence = visibleSequence.get();
+            registerSnapshot(sequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            return scan(memTable, from, to, sequence);
+        } catch (RuntimeException e) {
+            releaseSnapshot(sequence);
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #scan(Object, Object)} as of a snapshot, for {@link Snapshot#scan}. The
+     * scan registers the snapshot's sequence again until it is closed, so it keeps reading
+     * the same versions once the snapshot itself is closed.
+     */
+    ScanIterator<K,V> scan(K from, K to, long snapshot) {
+        registerSnapshot(snapshot);
+        try {
+            return scan(memTable, from, to, snapshot);
+        } catch (RuntimeException e) {
+            releaseSnapshot(snapshot);
+            throw e;
+        }
+    }
+
+    private ScanIterator<K,V> scan(IMemTable<K,V> active, K from, K to, long snapshot) {
+        while(true) {
+            View<K,V> current = view;
+            List<SSTableReader<K,V>> acquired = new ArrayList<>();
+            boolean complete = true;
+            for(int i = current.files().size() - 1; i >= 0; i--) {
+                SSTableReader<K,V> reader = current.files().get(i);
+                if(!inRange(reader, from, to)) {
+                    continue;
+                }
+                if(!reader.acquire()) {
+                    complete = false;
+                    break;
+                }
+                acquired.add(reader);
+            }
+            // the tables are held for as long as the iterator, like the files
+            List<IMemTable<K,V>> tables = new ArrayList<>();
+            List<ImmutableMemTable<K,V>> immutables = current.immutables();
+            for(int i = immutables.size(); i >= 0 && complete; i--) {
+                IMemTable<K,V> table = i == immutables.size() ? active : immutables.get(i).table();
+                if(!table.acquire()) {
+                    complete = false;
+                    break;
+                }
+                tables.add(table);
+            }
+            if(!complete && !stopped) {
+                release(tables, acquired);
+                active = memTable;
+                continue;
+            }
+
+            List<Iterator<Map.Entry<K,V>>> sources = new ArrayList<>();
+            for(IMemTable<K,V> table : tables) {
+                sources.add(table.cursor(from, to, snapshot));
+            }
+            for(SSTableReader<K,V> reader : acquired) {
+                sources.add(reader.iterator(from, to, snapshot));
+            }
+            try {
+                return new ScanIterator<>(new MergingIterator<>(sources, comparator), () -> {
+                    release(tables, acquired);
+                    releaseSnapshot(snapshot);
+                });
+            } catch (RuntimeException e) {
+                release(tables, acquired);
+                throw e;
+            }
+        }
+    }
+
+    private void release(List<IMemTable<K,V>> tables, List<SSTableReader<K,V>> readers) {
+        for(IMemTable<K,V> table : tables) {
+            table.release();
+        }
+        for(SSTableReader<K,V> reader : readers) {
+            reader.release();
+        }
+    }
+
+    private boolean inRange(SSTableReader<K,V> reader, K from, K to) {
+        return reader.entryCount() > 0
+                && (from == null || comparator.compare(from, reader.lastKey()) <= 0)
+                && (to == null || comparator.compare(to, reader.firstKey()) > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            long logSegment = -1;
+            if(wal != null) {
+                logSegment = wal.currentSegment();
+                wal.close();
+            }
+            if(memTable.hiddenSize() > 0) {
+                ImmutableMemTable<K,V> last = new ImmutableMemTable<>(memTable, logSegment,
+                        nextFileIndex.getAndIncrement(), lastSequence.get());
+                addImmutableMemTable(last);
+                blockingMemTablesQueue.add(last);
+                memTable = newMemTable();
+            } else if(wal != null) {
+                wal.deleteSegment(logSegment);
+            }
+            for(int i = 0; i < writeMemTableThreads.size(); i++) {
+                blockingMemTablesQueue.add(closeMarker);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (flushSignal) {
+            flushSignal.notifyAll();
+        }
+        try {
+            for(WriteMemTableThread writeMemTableThread : writeMemTableThreads) {
+                writeMemTableThread.join();
+            }
+            stopped = true;
+            if(compactionThread != null) {
+                synchronized (flushSignal) {
+                    flushSignal.notifyAll();
+                }
+                synchronized (compactionSignal) {
+                    compactionSignal.notifyAll();
+                }
+                compactionThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (filesLock) {
+            for(SSTableReader<K,V> reader : view.files()) {
+                reader.close();
+            }
+            // written by a flush that gave up publishing; its log segment is still there
+            for(SSTableReader<K,V> reader : completedFlushes.values()) {
+                reader.close();
+            }
+            completedFlushes.clear();
+            view = new View<>(List.of(), List.of());
+        }
+        manifest.close();
+        if(mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException ignored) { }
+        }
+    }
+
+    // MemTableType.LONG is only accepted with the Codecs.LONG key codec, so K is Long.
+    @SuppressWarnings("unchecked")
+    private IMemTable<K,V> newMemTable() {
+        return switch (options.getMemTableType()) {
+            case CONCURRENT_SKIP_LIST -> new ConcurrentMemTable<>(comparator);
+            case OFF_HEAP -> new OffHeapMemTable<>(comparator, options.getOffHeapChunkSize(), keyCodec, valueCodec);
+            case LONG -> (IMemTable<K,V>) new LongMemTable<V>();
+        };
+    }
+
+    private void rotate(IMemTable<K,V> fullMemTable) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(memTable != fullMemTable || closed) {
+                return;
+            }
+            long logSegment = wal != null ? wal.rotate() : -1;
+            ImmutableMemTable<K,V> immutable = new ImmutableMemTable<>(fullMemTable, logSegment,
+                    nextFileIndex.getAndIncrement(), lastSequence.get());
+            addImmutableMemTable(immutable);
+            memTable = newMemTable();
+            blockingMemTablesQueue.add(immutable);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public WriteStallMetrics writeStallMetrics() {
+        return new WriteStallMetrics(view.immutables().size(), memTable.byteSize(),
+                writeSlowdowns.sum(), writeStops.sum(), writeStallNanos.sum());
+    }
+
+    public BlockCacheStats blockCacheStats() {
+        return blockCache != null ? blockCache.stats() : new BlockCacheStats(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Snapshot of the store's latencies and counters, cheap enough to poll. The same numbers
+     * are published over JMX, see {@link StoreMetricsMXBean}.
+     */
+    public StoreMetrics metrics() {
+        View<K,V> current = view;
+        Map<String, Long> fileBlockReads = new LinkedHashMap<>();
+        for(SSTableReader<K,V> reader : current.files()) {
+            fileBlockReads.put(reader.file().getName(), reader.blockReads());
+        }
+        Throwable error = lastBackgroundError;
+        return new StoreMetrics(getLatency.snapshot(), writeLatency.snapshot(),
+                memTableHits.sum(), fileHits.sum(), misses.sum(), fileProbes.sum(),
+                current.immutables().size(), flushes.sum(), flushNanos.sum(), flushBytes.sum(),
+                lockWaitNanos.sum(), backgroundErrors.sum(), readErrors.sum(),
+                error != null ? error.toString() : null,
+                writeStallMetrics(), blockCacheStats(), Collections.unmodifiableMap(fileBlockReads));
+    }
+
+    // A name already taken, e.g. by a store on the same directory that was never closed,
+    // leaves this store unregistered rather than failing the open.
+    private ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName("org.shulgin:type=Store,name="
+                    + ObjectName.quote(new File(pathToSaveData, defaultFileName).getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StoreMetricsBean(this::metrics), name);
+            return name;
+        } catch (JMException e) {
             return null;
         }
     }
 
+    private void recordBackgroundError(Throwable error) {
+        backgroundErrors.increment();
+        lastBackgroundError = error;
+    }
+
+    private void throttle() {
+        int pending = view.immutables().size();
+        if(pending < options.getSlowdownImmutableMemTables()) {
+            return;
+        }
+        long start = System.nanoTime();
+        if(pending < options.getMaxImmutableMemTables()) {
+            writeSlowdowns.increment();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(options.getSlowdownMicros()));
+        } else {
+            writeStops.increment();
+            synchronized (flushSignal) {
+                while(view.immutables().size() >= options.getMaxImmutableMemTables() && !closed) {
+                    try {
+                        flushSignal.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        writeStallNanos.add(System.nanoTime() - start);
+    }
+
+    private void addImmutableMemTable(ImmutableMemTable<K,V> immutable) {
+        synchronized (filesLock) {
+            List<ImmutableMemTable<K,V>> newImmutables = new ArrayList<>(view.immutables());
+            newImmutables.add(immutable);
+            view = new View<>(Collections.unmodifiableList(newImmutables), view.files());
+        }
+    }
+
+    /**
+     * Replays the log segments left over from the last run, each into a file of its own. A
+     * segment the manifest already records as flushed was published before a crash stopped
+     * its deletion; replaying it would shadow newer files with its older values.
+     */
+    private void recover(List<Long> segments) throws IOException, CreateDirectoryException, CreateFileException {
+        for(long segment : segments) {
+            if(segment <= manifest.flushedLogSegment()) {
+                wal.deleteSegment(segment);
+                continue;
+            }
+            IMemTable<K,V> table = new MemTable<>(comparator);
+            for(LogRecord record : wal.replay(segment)) {
+                lastSequence.incrementAndGet();
+                K key = keyCodec.decode(ByteBuffer.wrap(record.key()), record.key().length);
+                if(record.type() == LogRecord.PUT) {
+                    table.put(key, valueCodec.decode(ByteBuffer.wrap(record.value()), record.value().length),
+                            lastSequence.get(), -1);
+                } else if(record.type() == LogRecord.DELETE) {
+                    table.putTombstone(key, lastSequence.get(), -1);
+                }
+            }
+            if(table.hiddenSize() > 0) {
+                publishFlush(null, writeMemTableThreads.get(0).exportMemTableToFile(table,
+                        nextFileIndex.getAndIncrement(), lastSequence.get()), segment);
+            }
+            wal.deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Flush workers finish in any order, but files are published in rotation order: a
+     * finished flush waits here until every older table has been published.
+     */
+    private void completeFlush(ImmutableMemTable<K,V> flushed, SSTableReader<K,V> reader) throws IOException {
+        synchronized (filesLock) {
+            completedFlushes.put(flushed, reader);
+        }
+        publishCompletedFlushes();
+    }
+
+    /**
+     * Publishes the finished flushes at the head of the queue. A table leaves the completed
+     * flushes only once its file is published, so when publishing fails the files stay
+     * queued and the failure is thrown for the caller to retry.
+     */
+    private void publishCompletedFlushes() throws IOException {
+        List<Long> obsoleteSegments = new ArrayList<>();
+        try {
+            synchronized (filesLock) {
+                List<ImmutableMemTable<K,V>> immutables = view.immutables();
+                while(!immutables.isEmpty() && completedFlushes.containsKey(immutables.get(0))) {
+                    ImmutableMemTable<K,V> oldest = immutables.get(0);
+                    publishFlush(oldest, completedFlushes.get(oldest), oldest.logSegment());
+                    completedFlushes.remove(oldest);
+                    if(oldest.logSegment() >= 0) {
+                        obsoleteSegments.add(oldest.logSegment());
+                    }
+                    immutables = view.immutables();
+                }
+            }
+        } finally {
+            deleteSegments(obsoleteSegments);
+        }
+    }
+
+    private void deleteSegments(List<Long> obsoleteSegments) {
+        if(wal != null) {
+            for(long segment : obsoleteSegments) {
+                try {
+                    wal.deleteSegment(segment);
+                } catch (IOException e) {
+                    recordBackgroundError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a flushed file visible and retires the table it was written from in a single
+     * step, so a reader sees the data either in the table or in the file, never in neither.
+     * The manifest edit adding the file also records its log segment as flushed. The table
+     * is released once it is out of the view, which frees an off-heap one as soon as no
+     * reader holds it.
+     */
+    private void publishFlush(ImmutableMemTable<K,V> flushed, SSTableReader<K,V> reader, long logSegment) throws IOException {
+        synchronized (filesLock) {
+            manifest.apply(List.of(), Map.of(reader.file().getName(), reader.metadata()), logSegment);
+            List<SSTableReader<K,V>> newFiles = new ArrayList<>(view.files());
+            newFiles.add(reader);
+            List<ImmutableMemTable<K,V>> newImmutables = new ArrayList<>(view.immutables());
+            if(flushed != null) {
+                newImmutables.remove(flushed);
+            }
+            view = new View<>(Collections.unmodifiableList(newImmutables), Collections.unmodifiableList(newFiles));
+        }
+        if(flushed != null) {
+            // reads that still hold the table finish on it, later ones find the file
+            flushed.table().release();
+        }
+        synchronized (flushSignal) {
+            flushSignal.notifyAll();
+        }
+        synchronized (compactionSignal) {
+            compactionSignal.notifyAll();
+        }
+    }
+
+    private void replaceFiles(List<SSTableReader<K,V>> inputs, List<SSTableReader<K,V>> outputs) throws IOException {
+        List<String> removed = new ArrayList<>(inputs.size());
+        for(SSTableReader<K,V> input : inputs) {
+            removed.add(input.file().getName());
+        }
+        Map<String, SSTableMetadata> added = new LinkedHashMap<>();
+        for(SSTableReader<K,V> output : outputs) {
+            added.put(output.file().getName(), output.metadata());
+        }
+        synchronized (filesLock) {
+            manifest.apply(removed, added);
+            List<SSTableReader<K,V>> newFiles = new ArrayList<>(view.files());
+            newFiles.removeAll(inputs);
+            newFiles.addAll(outputs);
+            newFiles.sort(fileOrder);
+            view = new View<>(view.immutables(), Collections.unmodifiableList(newFiles));
+        }
+        for(SSTableReader<K,V> input : inputs) {
+            input.markObsolete();
+            input.release();
+        }
+    }
+
+    private File newFile(String suffix) {
+        return new File(new File(pathToSaveData).getAbsolutePath() + "/" + defaultFileName
+                + nextFileIndex.getAndIncrement() + suffix);
+    }
+
+    private static void syncDirectory(File directory) {
+        try(FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Not every platform can open a directory; the rename is still atomic there.
+        }
+    }
+
+    private int getIndexFile(File file) {
+        return Integer.parseInt(file.getName().substring(defaultFileName.length()));
+    }
+
+    private SSTableReader<K,V> openReader(File file) throws IOException {
+        return openReader(file, null);
+    }
+
+    private SSTableReader<K,V> openReader(File file, SSTableMetadata metadata) throws IOException {
+        return new SSTableReader<>(file, metadata, comparator, keyCodec, valueCodec, blockCache,
+                options.isPinIndexAndFilterBlocks(), options.isMmapReads());
+    }
+
+    /**
+     * Opens the files the manifest lists from the metadata recorded there, without reading
+     * them, and deletes the files it does not list: those were left by a flush or compaction
+     * that did not finish. A directory without a manifest is opened by reading every file,
+     * and the files found are recorded in a new manifest. A listed file that is missing or
+     * cannot be opened fails the open rather than silently losing its keys.
+     */
+    private List<SSTableReader<K,V>> openFiles(List<File> files) throws IOException {
+        List<SSTableReader<K,V>> readers = new ArrayList<>(files.size());
+        try {
+            if(manifest.existed()) {
+                Map<String, SSTableMetadata> live = manifest.files();
+                for(Map.Entry<String, SSTableMetadata> entry : live.entrySet()) {
+                    File file = new File(pathToSaveData, entry.getKey());
+                    if(!file.isFile()) {
+                        throw new CorruptedFileException("Manifest lists missing file " + file);
+                    }
+                    readers.add(openReader(file, entry.getValue()));
+                }
+                for(File file : files) {
+                    if(!live.containsKey(file.getName())) {
+                        file.delete();
+                    }
+                }
+            } else {
+                Map<String, SSTableMetadata> found = new LinkedHashMap<>();
+                for(File file : files) {
+                    SSTableReader<K,V> reader = openReader(file);
+                    readers.add(reader);
+                    found.put(file.getName(), reader.metadata());
+                }
+                manifest.apply(List.of(), found);
+            }
+        } catch (IOException e) {
+            for(SSTableReader<K,V> reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        readers.sort(fileOrder);
+        return Collections.unmodifiableList(readers);
+    }
+
     private List<File> getKeyValueStoreFiles(File directory) throws CreateDirectoryException{
-        List<File> files = new CopyOnWriteArrayList<>();
+        List<File> files = new ArrayList<>();
 
         if(!directory.exists()) {
             if(!directory.mkdir()) {
@@ -87,11 +1207,13 @@ public class Store <K,V>{
             }
         }
 
-        String regex = defaultFileName + "\\d*";
+        String regex = defaultFileName + "\\d+";
 
         for(File file : Objects.requireNonNull(directory.listFiles())) {
             if(file.isFile() && Pattern.matches(regex, file.getName())) {
                 files.add(file);
+            } else if(file.isFile() && Pattern.matches(regex + Pattern.quote(TMP_SUFFIX), file.getName())) {
+                file.delete();
             }
         }
         files.sort((first, second) -> {
@@ -106,55 +1228,250 @@ public class Store <K,V>{
     }
 
     private class WriteMemTableThread extends Thread {
-        private final BlockingQueue<IMemTable<K,V>> blockingMemTablesQueue;
+        private final BlockingQueue<ImmutableMemTable<K,V>> blockingMemTablesQueue;
         private final String pathToSaveFiles;
         private final String defaultFileName;
-        private final List<File> files;
 
-        public WriteMemTableThread(BlockingQueue<IMemTable<K,V>> blockingMemTableQueue,
-                                   List<File> files, String pathToSaveFiles,
-                                   String defaultFileName) throws CreateDirectoryException{
+        public WriteMemTableThread(BlockingQueue<ImmutableMemTable<K,V>> blockingMemTableQueue,
+                                   String pathToSaveFiles, String defaultFileName) {
             this.blockingMemTablesQueue = blockingMemTableQueue;
             this.pathToSaveFiles = pathToSaveFiles;
             this.defaultFileName = defaultFileName;
-            this.files = files;
         }
 
         @Override
         public void run() {
             try {
                 while(!Thread.currentThread().isInterrupted()) {
-                    exportMemTableToFile(blockingMemTablesQueue.take());
+                    ImmutableMemTable<K,V> table = blockingMemTablesQueue.take();
+                    if(table == closeMarker) {
+                        return;
+                    }
+                    flush(table);
                 }
-            } catch (Exception ignored) { }
+            } catch (InterruptedException ignored) { }
         }
 
-        private int getIndexFile(File file) {
-            return Integer.parseInt(file.getName().substring(0, defaultFileName.length()));
+        /**
+         * A failed flush is retried with a growing pause instead of being dropped: the table
+         * stays readable and its log segment is kept until a flush of it is published, and
+         * writes stall once enough tables back up behind it. Once the file is written only
+         * publishing is retried, which also publishes newer files queued behind this one.
+         * Once the store is closing it gives up after a few attempts, leaving the table to
+         * log replay on the next open.
+         */
+        private void flush(ImmutableMemTable<K,V> table) throws InterruptedException {
+            long backoffMillis = FLUSH_RETRY_MILLIS;
+            boolean written = false;
+            for(int attempt = 1; ; attempt++) {
+                try {
+                    if(!written) {
+                        long start = System.nanoTime();
+                        SSTableReader<K,V> reader = exportMemTableToFile(table.table(), table.fileIndex(), table.sequence());
+                        flushNanos.add(System.nanoTime() - start);
+                        flushBytes.add(reader.size());
+                        flushes.increment();
+                        written = true;
+                        completeFlush(table, reader);
+                    } else {
+                        publishCompletedFlushes();
+                    }
+                    return;
+                } catch (IOException | CreateDirectoryException | CreateFileException | RuntimeException e) {
+                    recordBackgroundError(e);
+                    if(closed && attempt >= FLUSH_ATTEMPTS_ON_CLOSE) {
+                        return;
+                    }
+                    Thread.sleep(backoffMillis);
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_FLUSH_RETRY_MILLIS);
+                }
+            }
         }
 
-        private void exportMemTableToFile(IMemTable<K,V> table) throws CreateDirectoryException, CreateFileException, IOException{
+        private SSTableReader<K,V> exportMemTableToFile(IMemTable<K,V> table, int indexNewFile, long sequence) throws CreateDirectoryException, CreateFileException, IOException{
             File file = new File(pathToSaveFiles);
 
             if(!file.exists() || file.isFile()) {
                 throw new CreateDirectoryException();
             }
-            int indexNewFile = files.size() > 0 ? getIndexFile(files.get(files.size() - 1)) + 1 : 0;
 
             String nameNewFile = defaultFileName + indexNewFile;
-            File newFile = new File(file.getAbsolutePath() + "/" + nameNewFile);
+            File target = new File(file.getAbsolutePath() + "/" + nameNewFile);
+            File newFile = new File(file.getAbsolutePath() + "/" + nameNewFile + TMP_SUFFIX);
 
-            if(newFile.exists() || !newFile.createNewFile()) {
+            // left over from a failed attempt at flushing the same table
+            Files.deleteIfExists(newFile.toPath());
+            Files.deleteIfExists(target.toPath());
+            if(!newFile.createNewFile()) {
                 throw new CreateFileException();
             }
-            try(FileOutputStream fos = new FileOutputStream(newFile);
-                ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-                K firstKey = table.firstKey();
-                K lastKey = table.lastKey();
-                oos.writeObject(firstKey);
-                oos.writeObject(lastKey);
-                oos.writeObject(table);
+            SSTableMetadata metadata;
+            long[] snapshots = openSnapshots();
+            try(SSTableWriter<K,V> writer = new SSTableWriter<>(newFile, SSTableFormat.DEFAULT_BLOCK_SIZE,
+                    options.getFalsePositiveRate(), 0, sequence, keyCodec, valueCodec, options.getCompression())) {
+                if(table instanceof OffHeapMemTable<K,V> offHeapTable) {
+                    Iterator<List<SequencedEntry<ByteBuffer, ByteBuffer>>> keys = new RetainedVersions<>(
+                            offHeapTable.serializedVersions(), ByteBuffer::compareTo, snapshots, false);
+                    while(keys.hasNext()) {
+                        for(SequencedEntry<ByteBuffer, ByteBuffer> version : keys.next()) {
+                            byte[] keyBytes = new byte[version.getKey().remaining()];
+                            version.getKey().duplicate().get(keyBytes);
+                            writer.appendSerialized(keyBytes, version.getValue(), version.sequence());
+                        }
+                    }
+                } else {
+                    Iterator<List<SequencedEntry<K,V>>> keys = new RetainedVersions<>(table.versions(),
+                            comparator, snapshots, false);
+                    while(keys.hasNext()) {
+                        for(SequencedEntry<K,V> version : keys.next()) {
+                            writer.append(version.getKey(), version.getValue(), version.sequence());
+                        }
+                    }
+                }
+                writer.finish();
+                metadata = writer.metadata();
+            } catch (IOException | RuntimeException e) {
+                newFile.delete();
+                throw e;
+            }
+            // the file is synced by finish; the name becomes durable before the manifest records it
+            try {
+                Files.move(newFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                newFile.delete();
+                throw e;
+            }
+            syncDirectory(file);
+            return openReader(target, metadata);
+        }
+    }
+
+    private class CompactionThread extends Thread {
+        private final CompactionPolicy<K,V> policy;
+        private final RateLimiter rateLimiter;
+
+        public CompactionThread(CompactionPolicy<K,V> policy, RateLimiter rateLimiter) {
+            this.policy = policy;
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(!stopped) {
+                    Compaction<K,V> compaction = policy.pick(view.files());
+                    boolean compacted = false;
+                    if(compaction != null) {
+                        try {
+                            compact(compaction);
+                            compacted = true;
+                        } catch (IOException | UncheckedIOException e) {
+                            recordBackgroundError(e);
+                        }
+                    }
+                    if(!compacted) {
+                        synchronized (compactionSignal) {
+                            if(!stopped) {
+                                compactionSignal.wait(1000);
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) { }
+        }
+
+        private void compact(Compaction<K,V> compaction) throws IOException, InterruptedException {
+            List<SSTableReader<K,V>> inputs = compaction.inputs();
+            List<Iterator<SequencedEntry<K,V>>> sources = new ArrayList<>(inputs.size());
+            long sequence = 0;
+            for(int i = inputs.size() - 1; i >= 0; i--) {
+                sources.add(inputs.get(i).versions());
+                sequence = Math.max(sequence, inputs.get(i).sequence());
+            }
+            // a key's versions stay together, so an output file never splits them
+            Iterator<List<SequencedEntry<K,V>>> merged = new RetainedVersions<>(
+                    new MergingIterator<>(sources, comparator, true), comparator, openSnapshots(),
+                    compaction.bottommost());
+
+            List<File> outputFiles = new ArrayList<>();
+            List<SSTableMetadata> outputMetadata = new ArrayList<>();
+            List<SSTableReader<K,V>> outputs = new ArrayList<>();
+            SSTableWriter<K,V> writer = null;
+            long written = 0;
+            try {
+                while(merged.hasNext()) {
+                    if(stopped) {
+                        throw new InterruptedException();
+                    }
+                    waitForFlushes();
+                    List<SequencedEntry<K,V>> versions = merged.next();
+                    if(writer == null) {
+                        File outputFile = newFile(TMP_SUFFIX);
+                        outputFiles.add(outputFile);
+                        writer = new SSTableWriter<>(outputFile, SSTableFormat.DEFAULT_BLOCK_SIZE,
+                                options.getFalsePositiveRate(), compaction.outputLevel(), sequence, keyCodec, valueCodec,
+                                options.getCompression());
+                        written = 0;
+                    }
+                    for(SequencedEntry<K,V> version : versions) {
+                        writer.append(version.getKey(), version.getValue(), version.sequence());
+                    }
+                    rateLimiter.acquire(writer.estimatedSize() - written);
+                    written = writer.estimatedSize();
+                    if(written >= compaction.targetFileSize()) {
+                        writer.finish();
+                        writer.close();
+                        outputMetadata.add(writer.metadata());
+                        writer = null;
+                    }
+                }
+                if(writer != null) {
+                    writer.finish();
+                    writer.close();
+                    outputMetadata.add(writer.metadata());
+                    writer = null;
+                }
+
+                for(int i = 0; i < outputFiles.size(); i++) {
+                    File outputFile = outputFiles.get(i);
+                    String name = outputFile.getName();
+                    File target = new File(outputFile.getParentFile(), name.substring(0, name.length() - TMP_SUFFIX.length()));
+                    Files.move(outputFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    outputFiles.set(i, target);
+                    outputs.add(openReader(target, outputMetadata.get(i)));
+                }
+                syncDirectory(new File(pathToSaveData).getAbsoluteFile());
+                replaceFiles(inputs, outputs);
+            } catch (IOException | UncheckedIOException | InterruptedException e) {
+                if(writer != null) {
+                    writer.close();
+                }
+                for(SSTableReader<K,V> output : outputs) {
+                    output.release();
+                }
+                for(File outputFile : outputFiles) {
+                    outputFile.delete();
+                }
+                throw e;
+            }
+        }
+
+        // Queued tables are flushed first; every published flush wakes this up to look again.
+        private void waitForFlushes() throws InterruptedException {
+            synchronized (flushSignal) {
+                while(!blockingMemTablesQueue.isEmpty() && !stopped) {
+                    flushSignal.wait();
+                }
             }
         }
     }
+
+    /**
+     * @param sequence the last write sequence the table holds
+     */
+    record ImmutableMemTable<K,V>(IMemTable<K,V> table, long logSegment, int fileIndex, long sequence) {
+    }
+
+    record View<K,V>(List<ImmutableMemTable<K,V>> immutables, List<SSTableReader<K,V>> files) {
+    }
 }
@@ -0,0 +1,29 @@
+package org.shulgin.service;
+
+import org.shulgin.metrics.HistogramSnapshot;
+import org.shulgin.sstable.BlockCacheStats;
+
+import java.util.Map;
+
+/**
+ * A point-in-time copy of the store's counters, see {@link Store#metrics()}. Counters are
+ * totals since the store was opened.
+ *
+ * @param getLatency          {@code get} and {@code getLong}
+ * @param writeLatency        single-key writes, including throttling and waiting for the log
+ * @param memTableHits        gets answered by the active or an immutable MemTable
+ * @param fileHits            gets answered by a flushed file
+ * @param misses              gets that found no entry anywhere
+ * @param fileProbes          files searched by gets past their filter; per get, the read amplification
+ * @param flushQueueDepth     immutable MemTables waiting for or being flushed
+ * @param readErrors          reads that failed with an {@link java.io.UncheckedIOException}
+ * @param fileBlockReads      blocks read from each live file, not counting cache hits
+ * @param lastBackgroundError the last flush or compaction failure, or null
+ */
+public record StoreMetrics(HistogramSnapshot getLatency, HistogramSnapshot writeLatency,
+                           long memTableHits, long fileHits, long misses, long fileProbes,
+                           int flushQueueDepth, long flushes, long flushNanos, long flushBytes,
+                           long lockWaitNanos, long backgroundErrors, long readErrors, String lastBackgroundError,
+                           WriteStallMetrics writeStalls, BlockCacheStats blockCache,
+                           Map<String, Long> fileBlockReads) {
+}
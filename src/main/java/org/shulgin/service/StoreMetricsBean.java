@@ -0,0 +1,169 @@
+package org.shulgin.service;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+class StoreMetricsBean implements StoreMetricsMXBean {
+    private final Supplier<StoreMetrics> metrics;
+
+    StoreMetricsBean(Supplier<StoreMetrics> metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long getGetCount() {
+        return metrics.get().getLatency().count();
+    }
+
+    @Override
+    public double getGetMeanMicros() {
+        return metrics.get().getLatency().meanNanos() / 1e3;
+    }
+
+    @Override
+    public double getGetP50Micros() {
+        return metrics.get().getLatency().p50Nanos() / 1e3;
+    }
+
+    @Override
+    public double getGetP99Micros() {
+        return metrics.get().getLatency().p99Nanos() / 1e3;
+    }
+
+    @Override
+    public double getGetP999Micros() {
+        return metrics.get().getLatency().p999Nanos() / 1e3;
+    }
+
+    @Override
+    public double getGetMaxMicros() {
+        return metrics.get().getLatency().maxNanos() / 1e3;
+    }
+
+    @Override
+    public long getWriteCount() {
+        return metrics.get().writeLatency().count();
+    }
+
+    @Override
+    public double getWriteMeanMicros() {
+        return metrics.get().writeLatency().meanNanos() / 1e3;
+    }
+
+    @Override
+    public double getWriteP50Micros() {
+        return metrics.get().writeLatency().p50Nanos() / 1e3;
+    }
+
+    @Override
+    public double getWriteP99Micros() {
+        return metrics.get().writeLatency().p99Nanos() / 1e3;
+    }
+
+    @Override
+    public double getWriteP999Micros() {
+        return metrics.get().writeLatency().p999Nanos() / 1e3;
+    }
+
+    @Override
+    public double getWriteMaxMicros() {
+        return metrics.get().writeLatency().maxNanos() / 1e3;
+    }
+
+    @Override
+    public long getMemTableHits() {
+        return metrics.get().memTableHits();
+    }
+
+    @Override
+    public long getFileHits() {
+        return metrics.get().fileHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return metrics.get().misses();
+    }
+
+    @Override
+    public long getFileProbes() {
+        return metrics.get().fileProbes();
+    }
+
+    @Override
+    public double getFileProbesPerGet() {
+        StoreMetrics snapshot = metrics.get();
+        long gets = snapshot.memTableHits() + snapshot.fileHits() + snapshot.misses();
+        return gets == 0 ? 0 : (double) snapshot.fileProbes() / gets;
+    }
+
+    @Override
+    public int getFlushQueueDepth() {
+        return metrics.get().flushQueueDepth();
+    }
+
+    @Override
+    public long getFlushes() {
+        return metrics.get().flushes();
+    }
+
+    @Override
+    public double getFlushMillis() {
+        return metrics.get().flushNanos() / 1e6;
+    }
+
+    @Override
+    public long getFlushBytes() {
+        return metrics.get().flushBytes();
+    }
+
+    @Override
+    public double getLockWaitMillis() {
+        return metrics.get().lockWaitNanos() / 1e6;
+    }
+
+    @Override
+    public long getWriteSlowdowns() {
+        return metrics.get().writeStalls().slowdowns();
+    }
+
+    @Override
+    public long getWriteStops() {
+        return metrics.get().writeStalls().stops();
+    }
+
+    @Override
+    public double getWriteStallMillis() {
+        return metrics.get().writeStalls().stallNanos() / 1e6;
+    }
+
+    @Override
+    public long getBackgroundErrors() {
+        return metrics.get().backgroundErrors();
+    }
+
+    @Override
+    public long getReadErrors() {
+        return metrics.get().readErrors();
+    }
+
+    @Override
+    public String getLastBackgroundError() {
+        return metrics.get().lastBackgroundError();
+    }
+
+    @Override
+    public long getBlockCacheHits() {
+        return metrics.get().blockCache().hits();
+    }
+
+    @Override
+    public long getBlockCacheMisses() {
+        return metrics.get().blockCache().misses();
+    }
+
+    @Override
+    public Map<String, Long> getFileBlockReads() {
+        return metrics.get().fileBlockReads();
+    }
+}
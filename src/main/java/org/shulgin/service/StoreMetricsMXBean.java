@@ -0,0 +1,73 @@
+package org.shulgin.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link StoreMetrics}, registered as
+ * {@code org.shulgin:type=Store,name=<directory>/<file name>} unless
+ * {@link StoreOptions#setJmxEnabled(boolean)} turns it off. Every attribute read takes a
+ * fresh snapshot.
+ */
+public interface StoreMetricsMXBean {
+    long getGetCount();
+
+    double getGetMeanMicros();
+
+    double getGetP50Micros();
+
+    double getGetP99Micros();
+
+    double getGetP999Micros();
+
+    double getGetMaxMicros();
+
+    long getWriteCount();
+
+    double getWriteMeanMicros();
+
+    double getWriteP50Micros();
+
+    double getWriteP99Micros();
+
+    double getWriteP999Micros();
+
+    double getWriteMaxMicros();
+
+    long getMemTableHits();
+
+    long getFileHits();
+
+    long getMisses();
+
+    long getFileProbes();
+
+    double getFileProbesPerGet();
+
+    int getFlushQueueDepth();
+
+    long getFlushes();
+
+    double getFlushMillis();
+
+    long getFlushBytes();
+
+    double getLockWaitMillis();
+
+    long getWriteSlowdowns();
+
+    long getWriteStops();
+
+    double getWriteStallMillis();
+
+    long getBackgroundErrors();
+
+    long getReadErrors();
+
+    String getLastBackgroundError();
+
+    long getBlockCacheHits();
+
+    long getBlockCacheMisses();
+
+    Map<String, Long> getFileBlockReads();
+}
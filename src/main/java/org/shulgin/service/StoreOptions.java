@@ -0,0 +1,262 @@
+package org.shulgin.service;
+
+import org.shulgin.compaction.CompactionStyle;
+import org.shulgin.sstable.Compression;
+import org.shulgin.sstable.SSTableFormat;
+import org.shulgin.tree.OffHeapMemTable;
+import org.shulgin.wal.SyncMode;
+
+public class StoreOptions {
+    private double falsePositiveRate = SSTableFormat.DEFAULT_FALSE_POSITIVE_RATE;
+    private Compression compression = SSTableFormat.DEFAULT_COMPRESSION;
+    private CompactionStyle compactionStyle = CompactionStyle.SIZE_TIERED;
+    private long compactionBytesPerSecond = 0;
+    private int sizeTieredMinThreshold = 4;
+    private int sizeTieredMaxThreshold = 32;
+    private int level0FileTrigger = 4;
+    private long levelBaseBytes = 10L << 20;
+    private int levelMultiplier = 10;
+    private long targetFileSize = 2L << 20;
+    private int flushThreads = 2;
+    private long memTableBytes = 64L << 20;
+    private int slowdownImmutableMemTables = 6;
+    private int maxImmutableMemTables = 8;
+    private long slowdownMicros = 1000;
+    private MemTableType memTableType = MemTableType.CONCURRENT_SKIP_LIST;
+    private int offHeapChunkSize = OffHeapMemTable.DEFAULT_CHUNK_SIZE;
+    private boolean walEnabled = true;
+    private SyncMode walSyncMode = SyncMode.GROUP_COMMIT;
+    private long walSyncIntervalMillis = 1000;
+    private long blockCacheBytes = 32L << 20;
+    private boolean pinIndexAndFilterBlocks = true;
+    private boolean mmapReads = false;
+    private boolean jmxEnabled = true;
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public StoreOptions setFalsePositiveRate(double falsePositiveRate) {
+        if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Codec for the data blocks of flushed and compacted files. Blocks are compressed on the
+     * flush and compaction threads and cached decompressed, so it costs writes CPU but not
+     * cached reads. Files written with another codec stay readable.
+     */
+    public StoreOptions setCompression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public CompactionStyle getCompactionStyle() {
+        return compactionStyle;
+    }
+
+    public StoreOptions setCompactionStyle(CompactionStyle compactionStyle) {
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+
+    public StoreOptions setCompactionBytesPerSecond(long compactionBytesPerSecond) {
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        return this;
+    }
+
+    public int getSizeTieredMinThreshold() {
+        return sizeTieredMinThreshold;
+    }
+
+    public StoreOptions setSizeTieredMinThreshold(int sizeTieredMinThreshold) {
+        this.sizeTieredMinThreshold = sizeTieredMinThreshold;
+        return this;
+    }
+
+    public int getSizeTieredMaxThreshold() {
+        return sizeTieredMaxThreshold;
+    }
+
+    public StoreOptions setSizeTieredMaxThreshold(int sizeTieredMaxThreshold) {
+        this.sizeTieredMaxThreshold = sizeTieredMaxThreshold;
+        return this;
+    }
+
+    public int getLevel0FileTrigger() {
+        return level0FileTrigger;
+    }
+
+    public StoreOptions setLevel0FileTrigger(int level0FileTrigger) {
+        this.level0FileTrigger = level0FileTrigger;
+        return this;
+    }
+
+    public long getLevelBaseBytes() {
+        return levelBaseBytes;
+    }
+
+    public StoreOptions setLevelBaseBytes(long levelBaseBytes) {
+        this.levelBaseBytes = levelBaseBytes;
+        return this;
+    }
+
+    public int getLevelMultiplier() {
+        return levelMultiplier;
+    }
+
+    public StoreOptions setLevelMultiplier(int levelMultiplier) {
+        this.levelMultiplier = levelMultiplier;
+        return this;
+    }
+
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    public StoreOptions setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = targetFileSize;
+        return this;
+    }
+
+    public boolean isWalEnabled() {
+        return walEnabled;
+    }
+
+    public StoreOptions setWalEnabled(boolean walEnabled) {
+        this.walEnabled = walEnabled;
+        return this;
+    }
+
+    public SyncMode getWalSyncMode() {
+        return walSyncMode;
+    }
+
+    public StoreOptions setWalSyncMode(SyncMode walSyncMode) {
+        this.walSyncMode = walSyncMode;
+        return this;
+    }
+
+    public long getWalSyncIntervalMillis() {
+        return walSyncIntervalMillis;
+    }
+
+    public StoreOptions setWalSyncIntervalMillis(long walSyncIntervalMillis) {
+        this.walSyncIntervalMillis = walSyncIntervalMillis;
+        return this;
+    }
+
+    public MemTableType getMemTableType() {
+        return memTableType;
+    }
+
+    public StoreOptions setMemTableType(MemTableType memTableType) {
+        this.memTableType = memTableType;
+        return this;
+    }
+
+    public int getOffHeapChunkSize() {
+        return offHeapChunkSize;
+    }
+
+    public StoreOptions setOffHeapChunkSize(int offHeapChunkSize) {
+        this.offHeapChunkSize = offHeapChunkSize;
+        return this;
+    }
+
+    public long getMemTableBytes() {
+        return memTableBytes;
+    }
+
+    public StoreOptions setMemTableBytes(long memTableBytes) {
+        this.memTableBytes = memTableBytes;
+        return this;
+    }
+
+    public int getSlowdownImmutableMemTables() {
+        return slowdownImmutableMemTables;
+    }
+
+    public StoreOptions setSlowdownImmutableMemTables(int slowdownImmutableMemTables) {
+        this.slowdownImmutableMemTables = slowdownImmutableMemTables;
+        return this;
+    }
+
+    public int getMaxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    public StoreOptions setMaxImmutableMemTables(int maxImmutableMemTables) {
+        this.maxImmutableMemTables = maxImmutableMemTables;
+        return this;
+    }
+
+    public long getSlowdownMicros() {
+        return slowdownMicros;
+    }
+
+    public StoreOptions setSlowdownMicros(long slowdownMicros) {
+        this.slowdownMicros = slowdownMicros;
+        return this;
+    }
+
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    public StoreOptions setFlushThreads(int flushThreads) {
+        this.flushThreads = flushThreads;
+        return this;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public StoreOptions setBlockCacheBytes(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+        return this;
+    }
+
+    public boolean isPinIndexAndFilterBlocks() {
+        return pinIndexAndFilterBlocks;
+    }
+
+    public StoreOptions setPinIndexAndFilterBlocks(boolean pinIndexAndFilterBlocks) {
+        this.pinIndexAndFilterBlocks = pinIndexAndFilterBlocks;
+        return this;
+    }
+
+    public boolean isMmapReads() {
+        return mmapReads;
+    }
+
+    public StoreOptions setMmapReads(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+        return this;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Registers the store's {@link StoreMetricsMXBean} with the platform MBean server while
+     * it is open.
+     */
+    public StoreOptions setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        return this;
+    }
+}
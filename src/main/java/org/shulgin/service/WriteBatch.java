@@ -0,0 +1,49 @@
+package org.shulgin.service;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts and deletes collected to be applied by {@link Store#write(WriteBatch)} as one unit.
+ * Operations are applied in the order they were added, so a later operation on the same key
+ * wins. A batch is not thread safe and can be reused after {@link #clear()}.
+ */
+public class WriteBatch<K,V> {
+    private final List<Map.Entry<K,V>> operations = new ArrayList<>();
+
+    public WriteBatch<K,V> put(K key, V value) {
+        if(key != null && value != null) {
+            operations.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        }
+        return this;
+    }
+
+    public WriteBatch<K,V> delete(K key) {
+        if(key != null) {
+            operations.add(new AbstractMap.SimpleImmutableEntry<>(key, null));
+        }
+        return this;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public void clear() {
+        operations.clear();
+    }
+
+    /**
+     * Operations in order; a null value is a delete.
+     */
+    List<Map.Entry<K,V>> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+}
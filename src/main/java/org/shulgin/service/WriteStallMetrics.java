@@ -0,0 +1,5 @@
+package org.shulgin.service;
+
+public record WriteStallMetrics(int immutableMemTables, long activeMemTableBytes,
+                                long slowdowns, long stops, long stallNanos) {
+}
@@ -0,0 +1,159 @@
+package org.shulgin.sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Capacity-bounded cache of decoded blocks shared by all files of a store, keyed by
+ * (file id, block offset) and charged by resident size: the decompressed length of a data
+ * block and the estimated heap footprint of a decoded index or filter.
+ * <p>
+ * Each shard is a segmented LRU: a block enters the probation segment and only moves to
+ * the protected segment when it is hit again. Eviction takes probation blocks first, so a
+ * scan that touches every block once cannot push the hot set out of the protected segment.
+ */
+public class BlockCache {
+    private static final int SHARDS = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final long capacity;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacityBytes) {
+        this.capacity = capacityBytes;
+        for(int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacityBytes / SHARDS);
+        }
+    }
+
+    public Object get(long fileId, long offset) {
+        BlockKey key = new BlockKey(fileId, offset);
+        Object value = shard(key).get(key);
+        if(value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    public void put(long fileId, long offset, Object value, int charge) {
+        BlockKey key = new BlockKey(fileId, offset);
+        shard(key).put(key, value, charge);
+    }
+
+    /**
+     * Drops every block of a file, called once the file is deleted or closed for good.
+     */
+    public void invalidate(long fileId) {
+        for(Shard shard : shards) {
+            shard.invalidate(fileId);
+        }
+    }
+
+    public BlockCacheStats stats() {
+        long used = 0;
+        for(Shard shard : shards) {
+            used += shard.usedBytes();
+        }
+        return new BlockCacheStats(hits.sum(), misses.sum(), evictions.sum(), used, capacity);
+    }
+
+    private Shard shard(BlockKey key) {
+        long hash = key.fileId() * 0x9E3779B97F4A7C15L + key.offset();
+        hash ^= hash >>> 32;
+        return shards[(int) (hash & (SHARDS - 1))];
+    }
+
+    private record BlockKey(long fileId, long offset) {
+    }
+
+    private record CachedBlock(Object value, int charge) {
+    }
+
+    private class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final LinkedHashMap<BlockKey, CachedBlock> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<BlockKey, CachedBlock> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes = 0;
+        private long protectedBytes = 0;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        }
+
+        synchronized Object get(BlockKey key) {
+            CachedBlock block = protectedSegment.get(key);
+            if(block != null) {
+                return block.value();
+            }
+            block = probation.remove(key);
+            if(block == null) {
+                return null;
+            }
+            probationBytes -= block.charge();
+            protectedSegment.put(key, block);
+            protectedBytes += block.charge();
+            while(protectedBytes > protectedCapacity && !protectedSegment.isEmpty()) {
+                Map.Entry<BlockKey, CachedBlock> eldest = removeEldest(protectedSegment);
+                protectedBytes -= eldest.getValue().charge();
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationBytes += eldest.getValue().charge();
+            }
+            return block.value();
+        }
+
+        synchronized void put(BlockKey key, Object value, int charge) {
+            if(charge > capacity || probation.containsKey(key) || protectedSegment.containsKey(key)) {
+                return;
+            }
+            probation.put(key, new CachedBlock(value, charge));
+            probationBytes += charge;
+            while(probationBytes + protectedBytes > capacity) {
+                if(!probation.isEmpty()) {
+                    probationBytes -= removeEldest(probation).getValue().charge();
+                } else {
+                    protectedBytes -= removeEldest(protectedSegment).getValue().charge();
+                }
+                evictions.increment();
+            }
+        }
+
+        synchronized void invalidate(long fileId) {
+            probationBytes -= invalidate(probation, fileId);
+            protectedBytes -= invalidate(protectedSegment, fileId);
+        }
+
+        synchronized long usedBytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        private long invalidate(Map<BlockKey, CachedBlock> segment, long fileId) {
+            long removed = 0;
+            Iterator<Map.Entry<BlockKey, CachedBlock>> entries = segment.entrySet().iterator();
+            while(entries.hasNext()) {
+                Map.Entry<BlockKey, CachedBlock> entry = entries.next();
+                if(entry.getKey().fileId() == fileId) {
+                    removed += entry.getValue().charge();
+                    entries.remove();
+                }
+            }
+            return removed;
+        }
+
+        private Map.Entry<BlockKey, CachedBlock> removeEldest(LinkedHashMap<BlockKey, CachedBlock> segment) {
+            Iterator<Map.Entry<BlockKey, CachedBlock>> entries = segment.entrySet().iterator();
+            Map.Entry<BlockKey, CachedBlock> eldest = entries.next();
+            Map.Entry<BlockKey, CachedBlock> removed = Map.entry(eldest.getKey(), eldest.getValue());
+            entries.remove();
+            return removed;
+        }
+    }
+}
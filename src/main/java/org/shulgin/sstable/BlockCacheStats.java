@@ -0,0 +1,4 @@
+package org.shulgin.sstable;
+
+public record BlockCacheStats(long hits, long misses, long evictions, long usedBytes, long capacityBytes) {
+}
@@ -0,0 +1,5 @@
+package org.shulgin.sstable;
+
+public record BlockHandle(long offset, int length) {
+    public static final int ENCODED_LENGTH = Long.BYTES + Integer.BYTES;
+}
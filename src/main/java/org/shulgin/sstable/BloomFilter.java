@@ -0,0 +1,84 @@
+package org.shulgin.sstable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class BloomFilter {
+    private final long[] bits;
+    private final int numHashes;
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    public static BloomFilter create(long expectedEntries, double falsePositiveRate) {
+        if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        long entries = Math.max(1, expectedEntries);
+        long numBits = Math.max(64, (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        int numHashes = Math.max(1, (int) Math.round((double) numBits / entries * Math.log(2)));
+        return new BloomFilter(new long[(int) ((numBits + 63) >>> 6)], numHashes);
+    }
+
+    public static BloomFilter read(ByteBuffer buffer) {
+        int numHashes = buffer.getInt();
+        long[] bits = new long[buffer.getInt()];
+        for(int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BloomFilter(bits, numHashes);
+    }
+
+    // Heap footprint of the decoded filter: the object and its bit array.
+    public long residentBytes() {
+        return 16 + 16 + (long) bits.length * Long.BYTES;
+    }
+
+    public static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(long hash) {
+        long numBits = (long) bits.length << 6;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for(int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long numBits = (long) bits.length << 6;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for(int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(numHashes);
+        out.writeInt(bits.length);
+        for(long word : bits) {
+            out.writeLong(word);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.shulgin.sstable;
+
+import org.shulgin.exception.CorruptedFileException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec of a data block, recorded in the block's first byte so a file may mix codecs and
+ * stays readable whatever the writer is configured with later.
+ */
+public enum Compression {
+    /** Stored as is. Also used for blocks the chosen codec does not shrink enough. */
+    NONE(0),
+    /** The LZ4 block format, fast on both sides, see {@link LZ4Block}. */
+    LZ4(1),
+    /** Raw deflate at the default level: slower, but a better ratio than LZ4. */
+    DEFLATE(2);
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final byte id;
+
+    Compression(int id) {
+        this.id = (byte) id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public static Compression of(byte id) throws CorruptedFileException {
+        for(Compression compression : values()) {
+            if(compression.id == id) {
+                return compression;
+            }
+        }
+        throw new CorruptedFileException("Unknown block compression: " + id);
+    }
+
+    byte[] compress(byte[] input) {
+        return switch (this) {
+            case NONE -> input;
+            case LZ4 -> LZ4Block.compress(input, input.length);
+            case DEFLATE -> deflate(input);
+        };
+    }
+
+    /**
+     * Decompresses {@code length} bytes at {@code offset} into exactly {@code uncompressedLength}
+     * bytes; anything else means the block is corrupted.
+     */
+    byte[] decompress(byte[] input, int offset, int length, int uncompressedLength) throws CorruptedFileException {
+        byte[] output = new byte[uncompressedLength];
+        switch (this) {
+            case NONE -> {
+                if(length != uncompressedLength) {
+                    throw new CorruptedFileException("Stored block is " + length + " bytes, expected " + uncompressedLength);
+                }
+                System.arraycopy(input, offset, output, 0, length);
+            }
+            case LZ4 -> LZ4Block.decompress(input, offset, length, output);
+            case DEFLATE -> inflate(input, offset, length, output);
+        }
+        return output;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[Math.max(64, input.length / 2)];
+        while(!deflater.finished()) {
+            int written = deflater.deflate(buffer);
+            output.write(buffer, 0, written);
+        }
+        return output.toByteArray();
+    }
+
+    private static void inflate(byte[] input, int offset, int length, byte[] output) throws CorruptedFileException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(input, offset, length);
+        byte[] overflow = new byte[1];
+        int inflated = 0;
+        try {
+            // the end of the stream may only be seen once the output is already full
+            while(!inflater.finished()) {
+                int written = inflated < output.length
+                        ? inflater.inflate(output, inflated, output.length - inflated)
+                        : inflater.inflate(overflow);
+                if(written == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CorruptedFileException("Deflate block is truncated");
+                }
+                inflated += written;
+                if(inflated > output.length) {
+                    throw new CorruptedFileException("Deflate block is longer than " + output.length + " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new CorruptedFileException("Bad deflate block: " + e.getMessage());
+        }
+        if(inflated != output.length) {
+            throw new CorruptedFileException("Deflate block is " + inflated + " bytes, expected " + output.length);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.shulgin.sstable;
+
+import org.shulgin.exception.CorruptedFileException;
+
+import java.util.Arrays;
+
+/**
+ * Pure Java compressor for the LZ4 block format: a sequence of
+ * {@code [token][literal length...][literals][offset:2 LE][match length...]} with the final
+ * sequence holding literals only. Matches are found through a single-entry hash table of
+ * 4-byte sequences, without chains, which is what makes it fast rather than tight. The
+ * format's end-of-block rules (the last 5 bytes are literals, no match starts in the last
+ * 12) are kept so the output is readable by other LZ4 decoders.
+ */
+final class LZ4Block {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 15;
+
+    private LZ4Block() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    static byte[] compress(byte[] source, int length) {
+        byte[] target = new byte[maxCompressedLength(length)];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int position = 0;
+        int out = 0;
+        int matchLimit = length - MATCH_FIND_LIMIT;
+        while(position < matchLimit) {
+            int sequence = readInt(source, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int candidate = table[hash];
+            table[hash] = position;
+            if(candidate < 0 || position - candidate > MAX_DISTANCE || readInt(source, candidate) != sequence) {
+                // step further the longer nothing matched, so incompressible input goes fast
+                position += 1 + ((position - anchor) >>> SKIP_TRIGGER);
+                continue;
+            }
+            while(position > anchor && candidate > 0 && source[position - 1] == source[candidate - 1]) {
+                position--;
+                candidate--;
+            }
+            int matchLength = MIN_MATCH;
+            int matchEnd = length - LAST_LITERALS;
+            while(position + matchLength < matchEnd && source[position + matchLength] == source[candidate + matchLength]) {
+                matchLength++;
+            }
+
+            int literals = position - anchor;
+            int token = out++;
+            out = writeLength(target, out, literals);
+            System.arraycopy(source, anchor, target, out, literals);
+            out += literals;
+            int distance = position - candidate;
+            target[out++] = (byte) distance;
+            target[out++] = (byte) (distance >>> 8);
+            out = writeLength(target, out, matchLength - MIN_MATCH);
+            target[token] = (byte) ((Math.min(literals, RUN_MASK) << 4) | Math.min(matchLength - MIN_MATCH, RUN_MASK));
+
+            position += matchLength;
+            anchor = position;
+        }
+
+        int literals = length - anchor;
+        int token = out++;
+        out = writeLength(target, out, literals);
+        System.arraycopy(source, anchor, target, out, literals);
+        out += literals;
+        target[token] = (byte) (Math.min(literals, RUN_MASK) << 4);
+        return Arrays.copyOf(target, out);
+    }
+
+    /**
+     * Decompresses {@code length} bytes from {@code source} into exactly {@code target.length}
+     * bytes, checking every length and offset against both buffers.
+     */
+    static void decompress(byte[] source, int offset, int length, byte[] target) throws CorruptedFileException {
+        int in = offset;
+        int end = offset + length;
+        int out = 0;
+        while(true) {
+            if(in >= end) {
+                throw new CorruptedFileException("Truncated LZ4 block");
+            }
+            int token = source[in++] & 0xFF;
+            int literals = token >>> 4;
+            if(literals == RUN_MASK) {
+                int extra;
+                do {
+                    if(in >= end) {
+                        throw new CorruptedFileException("Truncated LZ4 block");
+                    }
+                    extra = source[in++] & 0xFF;
+                    literals += extra;
+                } while(extra == 255);
+            }
+            if(literals > end - in || literals > target.length - out) {
+                throw new CorruptedFileException("LZ4 literals overrun the block");
+            }
+            System.arraycopy(source, in, target, out, literals);
+            in += literals;
+            out += literals;
+            if(in == end) {
+                break;
+            }
+
+            if(end - in < 2) {
+                throw new CorruptedFileException("Truncated LZ4 block");
+            }
+            int distance = (source[in] & 0xFF) | (source[in + 1] & 0xFF) << 8;
+            in += 2;
+            int matchLength = token & RUN_MASK;
+            if(matchLength == RUN_MASK) {
+                int extra;
+                do {
+                    if(in >= end) {
+                        throw new CorruptedFileException("Truncated LZ4 block");
+                    }
+                    extra = source[in++] & 0xFF;
+                    matchLength += extra;
+                } while(extra == 255);
+            }
+            matchLength += MIN_MATCH;
+            if(distance == 0 || distance > out || matchLength > target.length - out) {
+                throw new CorruptedFileException("LZ4 match outside the block");
+            }
+            int from = out - distance;
+            if(distance >= matchLength) {
+                System.arraycopy(target, from, target, out, matchLength);
+                out += matchLength;
+            } else {
+                for(int i = 0; i < matchLength; i++) {
+                    target[out++] = target[from + i];
+                }
+            }
+        }
+        if(out != target.length) {
+            throw new CorruptedFileException("LZ4 block is " + out + " bytes, expected " + target.length);
+        }
+    }
+
+    private static int writeLength(byte[] target, int out, int length) {
+        if(length < RUN_MASK) {
+            return out;
+        }
+        length -= RUN_MASK;
+        while(length >= 255) {
+            target[out++] = (byte) 255;
+            length -= 255;
+        }
+        target[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+                | (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,208 @@
+package org.shulgin.sstable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Log of changes to the set of live files of a store. A file becomes live when the edit
+ * adding it is on disk, and only then may the store use it; files in the directory that the
+ * manifest does not list are leftovers of an interrupted flush or compaction.
+ * <pre>
+ * edit: [int payloadLength][int crc32][int removedCount]([int nameLength][name])*removedCount
+ *       [int addedCount]([int nameLength][name][metadata])*addedCount[long flushedLogSegment]
+ * </pre>
+ * The flushed log segment is the newest write-ahead log segment whose contents are all in
+ * live files, so an owner that crashed before deleting it knows not to replay it. Edits
+ * written before it was recorded end after the added files and count as -1.
+ * Every edit is forced to disk before {@link #apply} returns, and one edit is applied whole
+ * or not at all: replay stops at the first torn or corrupted edit. On open, and whenever the
+ * log holds many more edits than live files, it is rewritten as a single edit adding the
+ * live set and atomically renamed over the old one.
+ */
+public class Manifest implements Closeable {
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int MIN_EDITS_TO_REWRITE = 1000;
+
+    private final File file;
+    private final Map<String, SSTableMetadata> files = new LinkedHashMap<>();
+    private final boolean existed;
+    private FileChannel channel;
+    private int edits = 0;
+    private long flushedLogSegment = -1;
+
+    public Manifest(File file) throws IOException {
+        this.file = file;
+        this.existed = file.exists();
+        if(existed) {
+            replay();
+        }
+        rewrite();
+    }
+
+    /**
+     * False when the manifest was created by this instance, i.e. the directory was never
+     * tracked by one and its files have to be discovered another way.
+     */
+    public boolean existed() {
+        return existed;
+    }
+
+    /**
+     * Live files by name, in the order they were added.
+     */
+    public synchronized Map<String, SSTableMetadata> files() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(files));
+    }
+
+    /**
+     * Newest log segment recorded as flushed, or -1 if none is.
+     */
+    public synchronized long flushedLogSegment() {
+        return flushedLogSegment;
+    }
+
+    /**
+     * Atomically removes and adds files to the live set.
+     */
+    public void apply(Collection<String> removed, Map<String, SSTableMetadata> added) throws IOException {
+        apply(removed, added, -1);
+    }
+
+    /**
+     * Same as {@link #apply(Collection, Map)}, and in the same edit records that every log
+     * segment up to {@code flushedLogSegment} is in live files. The recorded segment never
+     * goes back, so -1 leaves it as it is.
+     */
+    public synchronized void apply(Collection<String> removed, Map<String, SSTableMetadata> added,
+                                   long flushedLogSegment) throws IOException {
+        if(channel == null) {
+            throw new IOException("Manifest is closed");
+        }
+        long newFlushedLogSegment = Math.max(this.flushedLogSegment, flushedLogSegment);
+        write(channel, removed, added, newFlushedLogSegment);
+        channel.force(false);
+        for(String name : removed) {
+            files.remove(name);
+        }
+        files.putAll(added);
+        this.flushedLogSegment = newFlushedLogSegment;
+        edits++;
+        if(edits >= MIN_EDITS_TO_REWRITE && edits > files.size()) {
+            rewrite();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void replay() throws IOException {
+        long remaining = file.length();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(remaining >= HEADER_LENGTH) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                remaining -= HEADER_LENGTH;
+                if(payloadLength <= 0 || payloadLength > remaining) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                remaining -= payloadLength;
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteBuffer edit = ByteBuffer.wrap(payload);
+                for(int count = edit.getInt(); count > 0; count--) {
+                    files.remove(readName(edit));
+                }
+                for(int count = edit.getInt(); count > 0; count--) {
+                    String name = readName(edit);
+                    files.put(name, SSTableMetadata.read(edit));
+                }
+                if(edit.remaining() >= Long.BYTES) {
+                    flushedLogSegment = Math.max(flushedLogSegment, edit.getLong());
+                }
+            }
+        }
+    }
+
+    // Writes the live set to a new log and renames it over the current one, which also drops
+    // a torn tail left by a crash so that new edits are not appended after it.
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try(FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, List.of(), files, flushedLogSegment);
+            out.force(false);
+        }
+        if(channel != null) {
+            channel.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        edits = 1;
+    }
+
+    private void syncDirectory() {
+        try(FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignored) {
+            // Not every platform can open a directory; the rename is still atomic there.
+        }
+    }
+
+    private static void write(FileChannel out, Collection<String> removed, Map<String, SSTableMetadata> added,
+                              long flushedLogSegment) throws IOException {
+        ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBuffer);
+        payload.writeInt(removed.size());
+        for(String name : removed) {
+            writeName(payload, name);
+        }
+        payload.writeInt(added.size());
+        for(Map.Entry<String, SSTableMetadata> entry : added.entrySet()) {
+            writeName(payload, entry.getKey());
+            entry.getValue().write(payload);
+        }
+        payload.writeLong(flushedLogSegment);
+        byte[] bytes = payloadBuffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(bytes);
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
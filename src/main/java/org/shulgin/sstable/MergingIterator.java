@@ -0,0 +1,75 @@
+package org.shulgin.sstable;
+
+import java.util.*;
+
+/**
+ * Merges sorted sources into one sorted stream with a single entry per key.
+ * Sources are ordered newest first: when several contain a key, the entry of
+ * the source with the lowest index wins and the others are skipped. With
+ * {@code allVersions} nothing is skipped and the entries of a key come source by
+ * source, newest source first, each source's in its own order.
+ */
+public class MergingIterator<K, E extends Map.Entry<K, ?>> implements Iterator<E> {
+    private final Comparator<? super K> comparator;
+    private final boolean allVersions;
+    private final PriorityQueue<Cursor<E>> heap;
+
+    public MergingIterator(List<? extends Iterator<? extends E>> sources, Comparator<? super K> comparator) {
+        this(sources, comparator, false);
+    }
+
+    public MergingIterator(List<? extends Iterator<? extends E>> sources, Comparator<? super K> comparator,
+                           boolean allVersions) {
+        this.comparator = comparator;
+        this.allVersions = allVersions;
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()), (first, second) -> {
+            int cmp = comparator.compare(first.current.getKey(), second.current.getKey());
+            return cmp != 0 ? cmp : Integer.compare(first.priority, second.priority);
+        });
+        for(int i = 0; i < sources.size(); i++) {
+            Iterator<? extends E> source = sources.get(i);
+            if(source.hasNext()) {
+                heap.add(new Cursor<>(source, i, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public E next() {
+        Cursor<E> top = heap.poll();
+        if(top == null) {
+            throw new NoSuchElementException();
+        }
+        E result = top.current;
+        advance(top);
+        while(!allVersions && !heap.isEmpty()
+                && comparator.compare(heap.peek().current.getKey(), result.getKey()) == 0) {
+            advance(heap.poll());
+        }
+        return result;
+    }
+
+    private void advance(Cursor<E> cursor) {
+        if(cursor.source.hasNext()) {
+            cursor.current = cursor.source.next();
+            heap.add(cursor);
+        }
+    }
+
+    private static class Cursor<E> {
+        final Iterator<? extends E> source;
+        final int priority;
+        E current;
+
+        Cursor(Iterator<? extends E> source, int priority, E current) {
+            this.source = source;
+            this.priority = priority;
+            this.current = current;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.shulgin.sstable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public final class ObjectSerializer {
+
+    private ObjectSerializer() {
+    }
+
+    public static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(o);
+        }
+        return bos.toByteArray();
+    }
+
+    public static Object deserialize(byte[] bytes, int offset, int length) throws IOException {
+        try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Deserializes the next {@code length} bytes of the buffer and moves its position past them.
+     * Direct and mapped buffers are read in place instead of being copied to the heap first.
+     */
+    public static Object deserialize(ByteBuffer buffer, int length) throws IOException {
+        Object o;
+        if(buffer.hasArray()) {
+            o = deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        } else {
+            try(ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(buffer.slice(buffer.position(), length)))) {
+                o = ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        buffer.position(buffer.position() + length);
+        return o;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(length == 0) {
+                return 0;
+            }
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
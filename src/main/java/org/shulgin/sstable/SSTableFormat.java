@@ -0,0 +1,50 @@
+package org.shulgin.sstable;
+
+/**
+ * On-disk layout of a flushed MemTable:
+ * <pre>
+ * [data block]...[data block][meta block][index block][filter block][footer]
+ * data block:  [byte codec][int uncompressedLength, unless codec is NONE](payload) [int crc32]
+ * payload:     ([varint shared][varint unshared][key suffix][varlong sequence][int valueLength][value])*
+ *              ([int restart offset])* [int restartCount]
+ * fixed:       [int count]([key])*count ([int valueOffset][int valueLength])*count ([varlong sequence][value])*
+ * meta block:  [long entryCount][long tombstoneCount][int level][long sequence][int keyWidth]
+ *              [int minKeyLength][minKey][int maxKeyLength][maxKey] [int crc32]
+ * index block: [int blockCount]([int keyLength][separator][long offset][int length])* [int crc32]
+ * filter:      [int numHashes][int numWords]([long word])* [int crc32]
+ * footer:      [meta handle][index handle][filter handle][long magic]
+ * </pre>
+ * Each entry is a version of a key tagged with the sequence of its write. The versions of a
+ * key are adjacent, newest first, and never span two blocks; a version that no open snapshot
+ * predates is written with sequence 0. A value length of {@link #TOMBSTONE} marks a deleted
+ * key, it has no value bytes and counts as an entry. Files written with an order preserving
+ * fixed-width key codec record the width as keyWidth and use fixed blocks, whose keys are
+ * binary searched in place; value offsets are relative to the end of the slot array and point
+ * at the entry's sequence. Otherwise keyWidth is 0 and keys are prefix compressed: each key
+ * stores only the suffix past the prefix it shares with the previous one, except a block's
+ * first and then the first version of a key once {@link #RESTART_INTERVAL} entries have
+ * passed, which are stored whole and whose offsets are listed at the end of the block so
+ * lookups can binary search them. A block's separator is at least its last key and below the
+ * next block's first key; with an order preserving key codec it is shortened to as few bytes
+ * as that allows, otherwise it is the last key. The last block's separator is its last key.
+ * A data block's payload is stored as written or compressed with the {@link Compression}
+ * whose id is its first byte, and the crc32 covers the stored bytes, header included. Block
+ * handles cover the whole block and its crc32 trailer. The meta block's sequence is the last
+ * write sequence the file holds, so it orders runs of the same level by age: a flush records
+ * the one of its table, a compaction output inherits the newest sequence of its inputs.
+ */
+public final class SSTableFormat {
+    public static final long MAGIC = 0x4B5653535461626CL;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final Compression DEFAULT_COMPRESSION = Compression.LZ4;
+    /** Percentage a codec must save on a block for the block to be stored compressed. */
+    public static final int MIN_COMPRESSION_SAVING = 12;
+    public static final int RESTART_INTERVAL = 16;
+    public static final int CHECKSUM_LENGTH = Integer.BYTES;
+    public static final int TOMBSTONE = -1;
+    public static final int FOOTER_LENGTH = 3 * BlockHandle.ENCODED_LENGTH + Long.BYTES;
+
+    private SSTableFormat() {
+    }
+}
@@ -0,0 +1,48 @@
+package org.shulgin.sstable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Everything a reader needs to serve a file before touching its blocks: the meta block
+ * contents plus the handles of the index and filter blocks. Keys are kept encoded.
+ */
+public record SSTableMetadata(long size, long entryCount, long tombstoneCount, int level, long sequence,
+                              int keyWidth, byte[] firstKey, byte[] lastKey,
+                              BlockHandle indexHandle, BlockHandle filterHandle) {
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(entryCount);
+        out.writeLong(tombstoneCount);
+        out.writeInt(level);
+        out.writeLong(sequence);
+        out.writeInt(keyWidth);
+        out.writeInt(firstKey.length);
+        out.write(firstKey);
+        out.writeInt(lastKey.length);
+        out.write(lastKey);
+        out.writeLong(indexHandle.offset());
+        out.writeInt(indexHandle.length());
+        out.writeLong(filterHandle.offset());
+        out.writeInt(filterHandle.length());
+    }
+
+    public static SSTableMetadata read(ByteBuffer buffer) {
+        long size = buffer.getLong();
+        long entryCount = buffer.getLong();
+        long tombstoneCount = buffer.getLong();
+        int level = buffer.getInt();
+        long sequence = buffer.getLong();
+        int keyWidth = buffer.getInt();
+        byte[] firstKey = new byte[buffer.getInt()];
+        buffer.get(firstKey);
+        byte[] lastKey = new byte[buffer.getInt()];
+        buffer.get(lastKey);
+        BlockHandle indexHandle = new BlockHandle(buffer.getLong(), buffer.getInt());
+        BlockHandle filterHandle = new BlockHandle(buffer.getLong(), buffer.getInt());
+        return new SSTableMetadata(size, entryCount, tombstoneCount, level, sequence, keyWidth,
+                firstKey, lastKey, indexHandle, filterHandle);
+    }
+}
@@ -0,0 +1,896 @@
+package org.shulgin.sstable;
+
+import org.shulgin.codec.Codec;
+import org.shulgin.codec.Codecs;
+import org.shulgin.exception.CorruptedFileException;
+import org.shulgin.tree.ObjectSizes;
+import org.shulgin.tree.SequencedEntry;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+public class SSTableReader<K,V> implements Closeable {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final Comparator<? super K> comparator;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final BlockCache cache;
+    private final SSTableMetadata metadata;
+    private final BlockHandle indexHandle;
+    private final BlockHandle filterHandle;
+    private final boolean pinned;
+    private volatile BlockIndex<K> pinnedIndex;
+    private volatile BloomFilter pinnedFilter;
+    private final long entryCount;
+    private final long tombstoneCount;
+    private final int level;
+    private final long sequence;
+    private final long size;
+    private final int keyWidth;
+    private final K firstKey;
+    private final K lastKey;
+    private final byte[] firstKeyBytes;
+    private final byte[] lastKeyBytes;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final LongAdder blockReads = new LongAdder();
+    private volatile boolean obsolete = false;
+
+    public SSTableReader(File file, Comparator<? super K> comparator) throws IOException {
+        this(file, comparator, null, true);
+    }
+
+    /**
+     * Data blocks are read through the cache when one is given. Unless pinned, the index and
+     * filter are cached too and reloaded after eviction; without a cache they are always pinned.
+     */
+    public SSTableReader(File file, Comparator<? super K> comparator, BlockCache cache,
+                         boolean pinIndexAndFilter) throws IOException {
+        this(file, comparator, cache, pinIndexAndFilter, false);
+    }
+
+    /**
+     * With {@code mmap} the whole file is mapped once and blocks are decoded straight from the
+     * mapping, leaving caching of data blocks to the page cache. Files over 2GB fall back to
+     * positioned reads. The mapping is released when the last reference to the reader is.
+     */
+    public SSTableReader(File file, Comparator<? super K> comparator, BlockCache cache,
+                         boolean pinIndexAndFilter, boolean mmap) throws IOException {
+        this(file, comparator, Codecs.serializable(), Codecs.serializable(), cache, pinIndexAndFilter, mmap);
+    }
+
+    /**
+     * The comparator must order keys the way the file was written. With an order preserving
+     * key codec, lookups compare encoded keys and only decode the value they return.
+     */
+    public SSTableReader(File file, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec,
+                         BlockCache cache, boolean pinIndexAndFilter, boolean mmap) throws IOException {
+        this(file, null, comparator, keyCodec, valueCodec, cache, pinIndexAndFilter, mmap);
+    }
+
+    /**
+     * Opens a file whose metadata is already known, from the writer or the store's manifest,
+     * without reading anything from it; a null metadata is read from the file's footer. The
+     * index and filter are loaded on first use either way.
+     */
+    public SSTableReader(File file, SSTableMetadata knownMetadata, Comparator<? super K> comparator,
+                         Codec<K> keyCodec, Codec<V> valueCodec, BlockCache cache,
+                         boolean pinIndexAndFilter, boolean mmap) throws IOException {
+        this.file = file;
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.cache = cache;
+        this.pinned = cache == null || pinIndexAndFilter;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer mapped = null;
+        try {
+            long length = channel.size();
+            this.size = length;
+            if(length < SSTableFormat.FOOTER_LENGTH) {
+                throw new CorruptedFileException("File is too short: " + file);
+            }
+            if(knownMetadata != null && knownMetadata.size() != length) {
+                throw new CorruptedFileException("File is " + length + " bytes, expected " + knownMetadata.size() + ": " + file);
+            }
+            if(mmap && length <= Integer.MAX_VALUE) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            this.mapping = mapped;
+            this.metadata = knownMetadata != null ? knownMetadata : readMetadata(length);
+            this.indexHandle = metadata.indexHandle();
+            this.filterHandle = metadata.filterHandle();
+            this.entryCount = metadata.entryCount();
+            this.tombstoneCount = metadata.tombstoneCount();
+            this.level = metadata.level();
+            this.sequence = metadata.sequence();
+            this.keyWidth = metadata.keyWidth();
+            this.firstKeyBytes = metadata.firstKey();
+            this.lastKeyBytes = metadata.lastKey();
+            this.firstKey = entryCount > 0 ? keyCodec.decode(ByteBuffer.wrap(firstKeyBytes), firstKeyBytes.length) : null;
+            this.lastKey = entryCount > 0 ? keyCodec.decode(ByteBuffer.wrap(lastKeyBytes), lastKeyBytes.length) : null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if(mapped != null) {
+                unmap(mapped);
+            }
+            throw e;
+        }
+    }
+
+    private SSTableMetadata readMetadata(long length) throws IOException {
+        ByteBuffer footer = read(length - SSTableFormat.FOOTER_LENGTH, SSTableFormat.FOOTER_LENGTH);
+        BlockHandle metaHandle = new BlockHandle(footer.getLong(), footer.getInt());
+        BlockHandle index = new BlockHandle(footer.getLong(), footer.getInt());
+        BlockHandle filter = new BlockHandle(footer.getLong(), footer.getInt());
+        if(footer.getLong() != SSTableFormat.MAGIC) {
+            throw new CorruptedFileException("Bad magic number: " + file);
+        }
+
+        ByteBuffer meta = readBlock(metaHandle);
+        long entries = meta.getLong();
+        long tombstones = meta.getLong();
+        int fileLevel = meta.getInt();
+        long fileSequence = meta.getLong();
+        int width = meta.getInt();
+        byte[] first = readBytes(meta);
+        byte[] last = readBytes(meta);
+        return new SSTableMetadata(length, entries, tombstones, fileLevel, fileSequence, width, first, last, index, filter);
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public SSTableMetadata metadata() {
+        return metadata;
+    }
+
+    /**
+     * Blocks read from the file or its mapping so far, including index and filter loads but
+     * not block cache hits.
+     */
+    public long blockReads() {
+        return blockReads.sum();
+    }
+
+    public long entryCount() {
+        return entryCount;
+    }
+
+    public long tombstoneCount() {
+        return tombstoneCount;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public K firstKey() {
+        return firstKey;
+    }
+
+    public K lastKey() {
+        return lastKey;
+    }
+
+    public boolean mightContain(K key, long keyHash) {
+        if(entryCount == 0 || comparator.compare(key, firstKey) < 0 || comparator.compare(key, lastKey) > 0) {
+            return false;
+        }
+        try {
+            return filter().mightContain(keyHash);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Same as {@link #mightContain(Object, long)}, but with an order preserving key codec the
+     * range check uses the encoded key and {@code key} may be null.
+     */
+    public boolean mightContain(K key, byte[] keyBytes, long keyHash) {
+        if(!keyCodec.orderPreserving()) {
+            return mightContain(key, keyHash);
+        }
+        if(entryCount == 0 || Arrays.compareUnsigned(keyBytes, firstKeyBytes) < 0
+                || Arrays.compareUnsigned(keyBytes, lastKeyBytes) > 0) {
+            return false;
+        }
+        try {
+            return filter().mightContain(keyHash);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    public V get(K key) throws IOException {
+        byte[] keyBytes = keyCodec.encode(key);
+        Map.Entry<K,V> entry = find(key, keyBytes, BloomFilter.hash(keyBytes));
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Looks a key up given its encoding and the hash of it. Returns null when the file has no
+     * entry for the key and an entry with a null value when the file holds a tombstone for it.
+     * The returned entry carries the key passed in, which may be null under the same
+     * condition as {@link #mightContain(Object, byte[], long)}.
+     */
+    public Map.Entry<K,V> find(K key, byte[] keyBytes, long keyHash) throws IOException {
+        return find(key, keyBytes, keyHash, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #find(Object, byte[], long)} as of a snapshot: the newest version of the
+     * key with a sequence {@code <= snapshot}.
+     */
+    public Map.Entry<K,V> find(K key, byte[] keyBytes, long keyHash, long snapshot) throws IOException {
+        if(!mightContain(key, keyBytes, keyHash)) {
+            return null;
+        }
+        return search(key, keyBytes, snapshot);
+    }
+
+    /**
+     * Same as {@link #find(Object, byte[], long, long)} without consulting the filter, for
+     * callers that have just checked {@link #mightContain(Object, byte[], long)} themselves.
+     */
+    public Map.Entry<K,V> search(K key, byte[] keyBytes, long snapshot) throws IOException {
+        BlockIndex<K> index = index();
+        int blockIndex = index.find(key, keyBytes, comparator);
+        if(blockIndex >= index.handles().size()) {
+            return null;
+        }
+
+        return findInBlock(readDataBlock(index.handles().get(blockIndex), true), key, keyBytes, snapshot);
+    }
+
+    public List<Map.Entry<K,V>> findAll(List<K> keys, List<byte[]> keyBytes, long[] keyHashes) throws IOException {
+        return findAll(keys, keyBytes, keyHashes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Looks up a batch of keys sorted in key order, with their encodings and hashes at the
+     * same positions. Each data block is read at most once and blocks are read in file
+     * order. The result holds, at each key's position, what {@link #find} would return.
+     */
+    public List<Map.Entry<K,V>> findAll(List<K> keys, List<byte[]> keyBytes, long[] keyHashes,
+                                        long snapshot) throws IOException {
+        List<Map.Entry<K,V>> entries = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        BlockIndex<K> index = null;
+        int currentBlock = -1;
+        ByteBuffer block = null;
+        for(int i = 0; i < keys.size(); i++) {
+            K key = keys.get(i);
+            byte[] bytes = keyBytes.get(i);
+            if(!mightContain(key, bytes, keyHashes[i])) {
+                continue;
+            }
+            if(index == null) {
+                index = index();
+            }
+            int blockIndex = index.find(key, bytes, comparator);
+            if(blockIndex >= index.handles().size()) {
+                break;
+            }
+            if(blockIndex != currentBlock) {
+                block = readDataBlock(index.handles().get(blockIndex), true);
+                currentBlock = blockIndex;
+            }
+            entries.set(i, findInBlock(block.duplicate(), key, bytes, snapshot));
+        }
+        return entries;
+    }
+
+    // Versions of a key are stored newest first and never span blocks, and restarts only fall
+    // on a key's first version, so the scan starts at or before the newest one.
+    private Map.Entry<K,V> findInBlock(ByteBuffer buffer, K key, byte[] keyBytes, long snapshot) throws IOException {
+        if(keyWidth > 0) {
+            return findFixed(buffer, key, keyBytes, snapshot);
+        }
+        boolean rawKeys = keyCodec.orderPreserving();
+        int restartCount = buffer.getInt(buffer.limit() - Integer.BYTES);
+        int entriesEnd = buffer.limit() - (restartCount + 1) * Integer.BYTES;
+        // the last restart whose key is not above the key, restart keys are stored whole
+        int low = 0;
+        int high = restartCount - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            ByteBuffer restart = buffer.duplicate().position(buffer.getInt(entriesEnd + middle * Integer.BYTES));
+            readVarint(restart);
+            int keyLength = readVarint(restart);
+            int cmp = rawKeys ? -Codecs.compare(restart, restart.position(), keyLength, keyBytes)
+                    : comparator.compare(key, keyCodec.decode(restart, keyLength));
+            if(cmp >= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if(restartCount > 0) {
+            buffer.position(buffer.getInt(entriesEnd + low * Integer.BYTES));
+        }
+        buffer.limit(entriesEnd);
+
+        KeyBuffer current = new KeyBuffer();
+        while(buffer.hasRemaining()) {
+            current.read(buffer);
+            int cmp = rawKeys ? -Arrays.compareUnsigned(current.bytes, 0, current.length, keyBytes, 0, keyBytes.length)
+                    : comparator.compare(key, current.decode(keyCodec));
+            long sequence = readVarlong(buffer);
+            int valueLength = buffer.getInt();
+            if(cmp == 0 && sequence <= snapshot) {
+                return new AbstractMap.SimpleImmutableEntry<>(key, readValue(buffer, valueLength));
+            }
+            if(cmp < 0) {
+                return null;
+            }
+            skipValue(buffer, valueLength);
+        }
+        return null;
+    }
+
+    private Map.Entry<K,V> findFixed(ByteBuffer block, K key, byte[] keyBytes, long snapshot) throws IOException {
+        int count = block.getInt(0);
+        long longKey = keyWidth == Long.BYTES ? ByteBuffer.wrap(keyBytes).getLong() : 0;
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compareFixedKey(block, middle, keyBytes, longKey) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for(int entry = low; entry < count && compareFixedKey(block, entry, keyBytes, longKey) == 0; entry++) {
+            if(readFixedSequence(block, count, entry) <= snapshot) {
+                return new AbstractMap.SimpleImmutableEntry<>(key, readFixedValue(block, count, entry));
+            }
+        }
+        return null;
+    }
+
+    private boolean sameFixedKeyAsPrevious(ByteBuffer block, int entry) {
+        int position = Integer.BYTES + entry * keyWidth;
+        for(int i = 0; i < keyWidth; i++) {
+            if(block.get(position + i) != block.get(position - keyWidth + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Leaves the block positioned past the sequence, at the value.
+    private long readFixedSequence(ByteBuffer block, int count, int entry) throws CorruptedFileException {
+        int slot = Integer.BYTES + count * keyWidth + entry * 2 * Integer.BYTES;
+        block.position(Integer.BYTES + count * (keyWidth + 2 * Integer.BYTES) + block.getInt(slot));
+        return readVarlong(block);
+    }
+
+    private int compareFixedKey(ByteBuffer block, int entry, byte[] keyBytes, long longKey) {
+        int position = Integer.BYTES + entry * keyWidth;
+        if(keyWidth == Long.BYTES) {
+            return Long.compareUnsigned(block.getLong(position), longKey);
+        }
+        return Codecs.compare(block, position, keyWidth, keyBytes);
+    }
+
+    private V readFixedValue(ByteBuffer block, int count, int entry) throws IOException {
+        int slot = Integer.BYTES + count * keyWidth + entry * 2 * Integer.BYTES;
+        int valueLength = block.getInt(slot + Integer.BYTES);
+        if(valueLength == SSTableFormat.TOMBSTONE) {
+            return null;
+        }
+        readFixedSequence(block, count, entry);
+        return readValue(block, valueLength);
+    }
+
+    public boolean overlaps(K from, K to) {
+        return entryCount > 0 && comparator.compare(from, lastKey) <= 0 && comparator.compare(to, firstKey) >= 0;
+    }
+
+    /**
+     * Iterates the latest version of every key in key order, tombstones included as entries
+     * with a null value. Blocks read by this iterator are not added to the cache, so
+     * compactions do not evict the blocks that point lookups depend on.
+     */
+    public Iterator<Map.Entry<K,V>> iterator() {
+        return entries(new BlockIterator(null, null, false, Long.MAX_VALUE, false));
+    }
+
+    /**
+     * Iterates keys in [from, to) in order, a null bound is open. Only the blocks that can
+     * hold keys in the range are read, starting with the one the index points {@code from} at.
+     */
+    public Iterator<Map.Entry<K,V>> iterator(K from, K to) {
+        return iterator(from, to, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #iterator(Object, Object)} as of a snapshot: each key comes with its
+     * newest version with a sequence {@code <= snapshot}, and keys with none are left out.
+     */
+    public Iterator<Map.Entry<K,V>> iterator(K from, K to, long snapshot) {
+        return entries(new BlockIterator(from, to, true, snapshot, false));
+    }
+
+    /**
+     * Iterates every version the file holds, in key order and newest first within a key,
+     * without filling the cache, for compactions.
+     */
+    public Iterator<SequencedEntry<K,V>> versions() {
+        return new BlockIterator(null, null, false, Long.MAX_VALUE, true);
+    }
+
+    private static <K,V> Iterator<Map.Entry<K,V>> entries(Iterator<SequencedEntry<K,V>> versions) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return versions.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                return versions.next();
+            }
+        };
+    }
+
+    public boolean acquire() {
+        while(true) {
+            int current = references.get();
+            if(current == 0) {
+                return false;
+            }
+            if(references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if(references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                if(cache != null) {
+                    cache.invalidate(id);
+                }
+                if(mapping != null) {
+                    unmap(mapping);
+                }
+                if(obsolete) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            } catch (IOException ignored) { }
+        }
+    }
+
+    public void markObsolete() {
+        obsolete = true;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private BlockIndex<K> index() throws IOException {
+        if(pinned) {
+            BlockIndex<K> index = pinnedIndex;
+            if(index == null) {
+                synchronized (this) {
+                    index = pinnedIndex;
+                    if(index == null) {
+                        index = loadIndex();
+                        pinnedIndex = index;
+                    }
+                }
+            }
+            return index;
+        }
+        BlockIndex<K> index = cachedIndex();
+        if(index == null) {
+            index = loadIndex();
+            cache.put(id, indexHandle.offset(), index, charge(index.residentBytes()));
+        }
+        return index;
+    }
+
+    // The cache slot of the index offset only ever holds this file's index.
+    @SuppressWarnings("unchecked")
+    private BlockIndex<K> cachedIndex() {
+        return (BlockIndex<K>) cache.get(id, indexHandle.offset());
+    }
+
+    private BloomFilter filter() throws IOException {
+        if(pinned) {
+            BloomFilter filter = pinnedFilter;
+            if(filter == null) {
+                synchronized (this) {
+                    filter = pinnedFilter;
+                    if(filter == null) {
+                        filter = BloomFilter.read(readBlock(filterHandle));
+                        pinnedFilter = filter;
+                    }
+                }
+            }
+            return filter;
+        }
+        BloomFilter filter = (BloomFilter) cache.get(id, filterHandle.offset());
+        if(filter == null) {
+            filter = BloomFilter.read(readBlock(filterHandle));
+            cache.put(id, filterHandle.offset(), filter, charge(filter.residentBytes()));
+        }
+        return filter;
+    }
+
+    private static int charge(long residentBytes) {
+        return (int) Math.min(Integer.MAX_VALUE, residentBytes);
+    }
+
+    private BlockIndex<K> loadIndex() throws IOException {
+        ByteBuffer index = readBlock(indexHandle);
+        int blockCount = index.getInt();
+        boolean rawKeys = keyCodec.orderPreserving();
+        List<K> keys = rawKeys ? null : new ArrayList<>(blockCount);
+        byte[][] encodedKeys = rawKeys ? new byte[blockCount][] : null;
+        List<BlockHandle> handles = new ArrayList<>(blockCount);
+        for(int i = 0; i < blockCount; i++) {
+            if(rawKeys) {
+                encodedKeys[i] = new byte[index.getInt()];
+                index.get(encodedKeys[i]);
+            } else {
+                keys.add(readKey(index));
+            }
+            handles.add(new BlockHandle(index.getLong(), index.getInt()));
+        }
+        return new BlockIndex<>(keys, encodedKeys, handles);
+    }
+
+    // Blocks are cached decompressed, so a cache hit costs no decompression. With a mapping,
+    // blocks stored as is are decoded straight from it and only compressed ones are cached.
+    private ByteBuffer readDataBlock(BlockHandle handle, boolean fillCache) throws IOException {
+        if(mapping != null && handle.offset() < mapping.capacity()
+                && mapping.get((int) handle.offset()) == Compression.NONE.id()) {
+            return decompress(readBlock(handle));
+        }
+        if(cache == null) {
+            return decompress(readBlock(handle));
+        }
+        ByteBuffer block = (ByteBuffer) cache.get(id, handle.offset());
+        if(block == null) {
+            block = decompress(readBlock(handle));
+            if(!fillCache) {
+                return block;
+            }
+            cache.put(id, handle.offset(), block, block.capacity());
+        }
+        return block.duplicate();
+    }
+
+    private ByteBuffer decompress(ByteBuffer stored) throws IOException {
+        if(!stored.hasRemaining()) {
+            throw new CorruptedFileException("Empty data block in " + file);
+        }
+        Compression codec = Compression.of(stored.get(0));
+        if(codec == Compression.NONE) {
+            return stored.position(1).slice();
+        }
+        int headerLength = 1 + Integer.BYTES;
+        if(stored.limit() < headerLength || stored.getInt(1) < 0) {
+            throw new CorruptedFileException("Bad compressed block header in " + file);
+        }
+        int uncompressedLength = stored.getInt(1);
+        int length = stored.limit() - headerLength;
+        byte[] bytes;
+        int offset;
+        if(stored.hasArray()) {
+            bytes = stored.array();
+            offset = stored.arrayOffset() + headerLength;
+        } else {
+            bytes = new byte[length];
+            stored.get(headerLength, bytes);
+            offset = 0;
+        }
+        return ByteBuffer.wrap(codec.decompress(bytes, offset, length, uncompressedLength));
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private K readKey(ByteBuffer buffer) throws IOException {
+        return keyCodec.decode(buffer, buffer.getInt());
+    }
+
+    private V readValue(ByteBuffer buffer, int length) throws IOException {
+        if(length == SSTableFormat.TOMBSTONE) {
+            return null;
+        }
+        return valueCodec.decode(buffer, length);
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws CorruptedFileException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFileException("Malformed varint");
+    }
+
+    private static long readVarlong(ByteBuffer buffer) throws CorruptedFileException {
+        long value = 0;
+        for(int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFileException("Malformed varlong");
+    }
+
+    private static void skipValue(ByteBuffer buffer, int length) {
+        if(length != SSTableFormat.TOMBSTONE) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private ByteBuffer readBlock(BlockHandle handle) throws IOException {
+        blockReads.increment();
+        ByteBuffer block = read(handle.offset(), handle.length());
+        int payloadLength = handle.length() - SSTableFormat.CHECKSUM_LENGTH;
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate().limit(payloadLength));
+        if((int) crc.getValue() != block.getInt(payloadLength)) {
+            throw new CorruptedFileException("Checksum mismatch at offset " + handle.offset() + " in " + file);
+        }
+        return block.limit(payloadLength);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if(mapping == null) {
+            return ByteBuffer.wrap(readFully(offset, length));
+        }
+        if(offset < 0 || offset + length > mapping.capacity()) {
+            throw new EOFException("Unexpected end of " + file);
+        }
+        return mapping.slice((int) offset, length);
+    }
+
+    private byte[] readFully(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        return bytes;
+    }
+
+    // Yields the newest version <= snapshot of each key, or every version with allVersions.
+    private class BlockIterator implements Iterator<SequencedEntry<K,V>> {
+        private final K from;
+        private final K to;
+        private final boolean fillCache;
+        private final long snapshot;
+        private final boolean allVersions;
+        private BlockIndex<K> index;
+        private int blockIndex;
+        private ByteBuffer block;
+        private int blockEntry;
+        private int blockEntries;
+        private final KeyBuffer blockKey = new KeyBuffer();
+        private K key;
+        // a version of the current key was returned, the older ones are skipped
+        private boolean keyDone;
+        private SequencedEntry<K,V> next;
+        private boolean done;
+
+        BlockIterator(K from, K to, boolean fillCache, long snapshot, boolean allVersions) {
+            this.from = from;
+            this.to = to;
+            this.fillCache = fillCache;
+            this.snapshot = snapshot;
+            this.allVersions = allVersions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null && !done) {
+                try {
+                    next = advance();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public SequencedEntry<K,V> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SequencedEntry<K,V> result = next;
+            next = null;
+            return result;
+        }
+
+        private SequencedEntry<K,V> advance() throws IOException {
+            if(index == null) {
+                index = index();
+                blockIndex = from == null ? 0 : index.find(from, keyCodec.orderPreserving() ? keyCodec.encode(from) : null,
+                        comparator);
+            }
+            while(true) {
+                while(block == null || (keyWidth > 0 ? blockEntry >= blockEntries : !block.hasRemaining())) {
+                    if(blockIndex >= index.handles().size()) {
+                        return null;
+                    }
+                    block = readDataBlock(index.handles().get(blockIndex++), fillCache);
+                    blockEntry = 0;
+                    blockEntries = keyWidth > 0 ? block.getInt(0) : 0;
+                    if(keyWidth == 0) {
+                        int restartCount = block.getInt(block.limit() - Integer.BYTES);
+                        block.limit(block.limit() - (restartCount + 1) * Integer.BYTES);
+                    }
+                }
+                int entry = blockEntry++;
+                if(keyWidth > 0) {
+                    boolean sameKey = entry > 0 && sameFixedKeyAsPrevious(block, entry);
+                    if(sameKey && keyDone && !allVersions) {
+                        continue;
+                    }
+                    if(!sameKey) {
+                        keyDone = false;
+                        block.position(Integer.BYTES + entry * keyWidth);
+                        key = keyCodec.decode(block, keyWidth);
+                    }
+                    if(from != null && comparator.compare(key, from) < 0) {
+                        continue;
+                    }
+                    if(to != null && comparator.compare(key, to) >= 0) {
+                        return null;
+                    }
+                    long sequence = readFixedSequence(block, blockEntries, entry);
+                    if(!allVersions && sequence > snapshot) {
+                        continue;
+                    }
+                    keyDone = true;
+                    return new SequencedEntry<>(key, readFixedValue(block, blockEntries, entry), sequence);
+                }
+                boolean sameKey = blockKey.read(block) && entry > 0;
+                long sequence = readVarlong(block);
+                int valueLength = block.getInt();
+                if(sameKey && keyDone && !allVersions) {
+                    skipValue(block, valueLength);
+                    continue;
+                }
+                if(!sameKey) {
+                    keyDone = false;
+                    key = blockKey.decode(keyCodec);
+                }
+                if(from != null && comparator.compare(key, from) < 0) {
+                    skipValue(block, valueLength);
+                    continue;
+                }
+                if(to != null && comparator.compare(key, to) >= 0) {
+                    return null;
+                }
+                if(!allVersions && sequence > snapshot) {
+                    skipValue(block, valueLength);
+                    continue;
+                }
+                keyDone = true;
+                return new SequencedEntry<>(key, readValue(block, valueLength), sequence);
+            }
+        }
+    }
+
+    // The foreign memory API is still a preview in release 19, which the build targets, so
+    // there is no public unmap: the mapping is released through Unsafe.invokeCleaner when
+    // available and otherwise left to the garbage collector.
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) { }
+    }
+
+    // The key of the current entry of a prefix compressed block, rebuilt from the shared
+    // prefix of the previous one and the stored suffix.
+    private static class KeyBuffer {
+        byte[] bytes = new byte[64];
+        int length;
+
+        // True when the key is the same as the previous one, i.e. another version of it.
+        boolean read(ByteBuffer block) throws CorruptedFileException {
+            int shared = readVarint(block);
+            int unshared = readVarint(block);
+            if(shared > length || unshared < 0 || unshared > block.remaining()) {
+                throw new CorruptedFileException("Bad key prefix in data block");
+            }
+            if(shared + unshared > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(shared + unshared, bytes.length * 2));
+            }
+            block.get(bytes, shared, unshared);
+            boolean unchanged = shared == length && unshared == 0;
+            length = shared + unshared;
+            return unchanged;
+        }
+
+        <K> K decode(Codec<K> codec) throws IOException {
+            return codec.decode(ByteBuffer.wrap(bytes, 0, length), length);
+        }
+    }
+
+    // Holds decoded keys, or only their encodings when the key codec is order preserving.
+    private record BlockIndex<K>(List<K> keys, byte[][] encodedKeys, List<BlockHandle> handles) {
+        // a BlockHandle plus its slot in handles and in keys or encodedKeys
+        private static final int BLOCK_OVERHEAD = 24 + 2 * 4;
+
+        // Rough heap footprint of the decoded index, what it costs while cached.
+        long residentBytes() {
+            long bytes = 64 + (long) BLOCK_OVERHEAD * handles.size();
+            for(int i = 0; i < handles.size(); i++) {
+                bytes += ObjectSizes.estimate(encodedKeys != null ? encodedKeys[i] : keys.get(i));
+            }
+            return bytes;
+        }
+
+        // Index keys are the last key of each block, so the first block whose last key is >= key.
+        int find(K key, byte[] keyBytes, Comparator<? super K> comparator) {
+            if(encodedKeys == null) {
+                int blockIndex = Collections.binarySearch(keys, key, comparator);
+                return blockIndex < 0 ? -blockIndex - 1 : blockIndex;
+            }
+            int low = 0;
+            int high = encodedKeys.length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(Arrays.compareUnsigned(encodedKeys[middle], keyBytes) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
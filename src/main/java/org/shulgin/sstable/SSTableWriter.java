@@ -0,0 +1,382 @@
+package org.shulgin.sstable;
+
+import org.shulgin.codec.Codec;
+import org.shulgin.codec.Codecs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class SSTableWriter<K,V> implements Closeable {
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final double falsePositiveRate;
+    private final int level;
+    private final long sequence;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int keyWidth;
+    private final Compression compression;
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream block = new DataOutputStream(blockBuffer);
+    private final ByteArrayOutputStream keysBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream slotsBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream slots = new DataOutputStream(slotsBuffer);
+    private final List<byte[]> indexKeys = new ArrayList<>();
+    private final List<BlockHandle> indexHandles = new ArrayList<>();
+    private final boolean shortenSeparators;
+
+    private final byte[] scratch = new byte[8192];
+    private long[] keyHashes = new long[256];
+    private int[] restarts = new int[16];
+    private int restartCount = 0;
+    private int sinceRestart = 0;
+    private BlockHandle pendingHandle;
+    private long position = 0;
+    private long entryCount = 0;
+    private long tombstoneCount = 0;
+    private int blockEntries = 0;
+    private byte[] firstKey;
+    private byte[] lastKey;
+    private boolean finished = false;
+    private SSTableMetadata metadata;
+
+    public SSTableWriter(File file) throws IOException {
+        this(file, SSTableFormat.DEFAULT_BLOCK_SIZE);
+    }
+
+    public SSTableWriter(File file, int blockSize) throws IOException {
+        this(file, blockSize, SSTableFormat.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    public SSTableWriter(File file, int blockSize, double falsePositiveRate) throws IOException {
+        this(file, blockSize, falsePositiveRate, 0, 0);
+    }
+
+    public SSTableWriter(File file, int blockSize, double falsePositiveRate, int level, long sequence) throws IOException {
+        this(file, blockSize, falsePositiveRate, level, sequence, Codecs.serializable(), Codecs.serializable());
+    }
+
+    public SSTableWriter(File file, int blockSize, double falsePositiveRate, int level, long sequence,
+                         Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this(file, blockSize, falsePositiveRate, level, sequence, keyCodec, valueCodec, SSTableFormat.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Data blocks are compressed with {@code compression} on the writing thread; a block it
+     * does not shrink by at least {@link SSTableFormat#MIN_COMPRESSION_SAVING} is stored as is.
+     */
+    public SSTableWriter(File file, int blockSize, double falsePositiveRate, int level, long sequence,
+                         Codec<K> keyCodec, Codec<V> valueCodec, Compression compression) throws IOException {
+        this.compression = compression;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.keyWidth = keyCodec.orderPreserving() ? keyCodec.fixedWidth() : 0;
+        this.shortenSeparators = keyCodec.orderPreserving();
+        this.fileOut = new FileOutputStream(file);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        this.blockSize = blockSize;
+        this.falsePositiveRate = falsePositiveRate;
+        this.level = level;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Appends the next key in order; a null value writes a tombstone.
+     */
+    public void append(K key, V value) throws IOException {
+        append(key, value, 0);
+    }
+
+    /**
+     * Appends a version of a key written with {@code sequence}. Keys come in order and the
+     * versions of one key newest first.
+     */
+    public void append(K key, V value, long sequence) throws IOException {
+        appendSerialized(keyCodec.encode(key), value == null ? null : ByteBuffer.wrap(valueCodec.encode(value)), sequence);
+    }
+
+    public void appendSerialized(byte[] keyBytes, ByteBuffer value) throws IOException {
+        appendSerialized(keyBytes, value, 0);
+    }
+
+    public void appendSerialized(byte[] keyBytes, ByteBuffer value, long sequence) throws IOException {
+        boolean sameKey = lastKey != null && Arrays.equals(lastKey, keyBytes);
+        // a full block is only closed at the next key, so the versions of a key share a block
+        if(!sameKey && blockEntries > 0 && pendingBlockSize() >= blockSize) {
+            flushDataBlock();
+        }
+        if(pendingHandle != null) {
+            addIndexEntry(shortenSeparators ? separator(lastKey, keyBytes) : lastKey);
+        }
+        if(keyWidth > 0) {
+            if(keyBytes.length != keyWidth) {
+                throw new IllegalArgumentException("Key is " + keyBytes.length + " bytes, expected " + keyWidth);
+            }
+            keysBuffer.write(keyBytes);
+            slots.writeInt(blockBuffer.size());
+            slots.writeInt(value == null ? SSTableFormat.TOMBSTONE : value.remaining());
+        } else {
+            int shared = 0;
+            // restarts fall on a key's newest version, where lookups start scanning
+            if(blockEntries == 0 || (!sameKey && sinceRestart >= SSTableFormat.RESTART_INTERVAL)) {
+                if(restartCount == restarts.length) {
+                    restarts = Arrays.copyOf(restarts, restarts.length * 2);
+                }
+                restarts[restartCount++] = blockBuffer.size();
+                sinceRestart = 0;
+            } else {
+                shared = Arrays.mismatch(lastKey, keyBytes);
+                if(shared < 0) {
+                    shared = keyBytes.length;
+                }
+            }
+            sinceRestart++;
+            writeVarint(block, shared);
+            writeVarint(block, keyBytes.length - shared);
+            block.write(keyBytes, shared, keyBytes.length - shared);
+        }
+        writeVarlong(block, sequence);
+        if(keyWidth == 0) {
+            block.writeInt(value == null ? SSTableFormat.TOMBSTONE : value.remaining());
+        }
+        if(value == null) {
+            tombstoneCount++;
+        } else {
+            writeValue(value);
+        }
+        if(firstKey == null) {
+            firstKey = keyBytes;
+        }
+        lastKey = keyBytes;
+        if(entryCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[(int) entryCount] = BloomFilter.hash(keyBytes);
+        entryCount++;
+        blockEntries++;
+    }
+
+    public long entryCount() {
+        return entryCount;
+    }
+
+    public long tombstoneCount() {
+        return tombstoneCount;
+    }
+
+    public long estimatedSize() {
+        return position + pendingBlockSize();
+    }
+
+    public long finish() throws IOException {
+        if(finished) {
+            return position;
+        }
+        if(blockEntries > 0) {
+            flushDataBlock();
+        }
+        if(pendingHandle != null) {
+            addIndexEntry(lastKey);
+        }
+
+        ByteArrayOutputStream metaBuffer = new ByteArrayOutputStream();
+        DataOutputStream meta = new DataOutputStream(metaBuffer);
+        meta.writeLong(entryCount);
+        meta.writeLong(tombstoneCount);
+        meta.writeInt(level);
+        meta.writeLong(sequence);
+        meta.writeInt(keyWidth);
+        writeBytes(meta, firstKey);
+        writeBytes(meta, lastKey);
+        BlockHandle metaHandle = writeBlock(metaBuffer.toByteArray());
+
+        ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBuffer);
+        index.writeInt(indexHandles.size());
+        for(int i = 0; i < indexHandles.size(); i++) {
+            writeBytes(index, indexKeys.get(i));
+            index.writeLong(indexHandles.get(i).offset());
+            index.writeInt(indexHandles.get(i).length());
+        }
+        BlockHandle indexHandle = writeBlock(indexBuffer.toByteArray());
+
+        BloomFilter filter = BloomFilter.create(entryCount, falsePositiveRate);
+        for(int i = 0; i < entryCount; i++) {
+            filter.add(keyHashes[i]);
+        }
+        ByteArrayOutputStream filterBuffer = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(filterBuffer));
+        BlockHandle filterHandle = writeBlock(filterBuffer.toByteArray());
+
+        out.writeLong(metaHandle.offset());
+        out.writeInt(metaHandle.length());
+        out.writeLong(indexHandle.offset());
+        out.writeInt(indexHandle.length());
+        out.writeLong(filterHandle.offset());
+        out.writeInt(filterHandle.length());
+        out.writeLong(SSTableFormat.MAGIC);
+        position += SSTableFormat.FOOTER_LENGTH;
+        out.flush();
+        fileOut.getFD().sync();
+        finished = true;
+        metadata = new SSTableMetadata(position, entryCount, tombstoneCount, level, sequence, keyWidth,
+                firstKey == null ? new byte[0] : firstKey, lastKey == null ? new byte[0] : lastKey,
+                indexHandle, filterHandle);
+        return position;
+    }
+
+    /**
+     * Metadata of the finished file, so it can be opened without reading it back.
+     */
+    public SSTableMetadata metadata() {
+        if(!finished) {
+            throw new IllegalStateException("File is not finished");
+        }
+        return metadata;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeValue(ByteBuffer value) throws IOException {
+        if(value.hasArray()) {
+            block.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+            return;
+        }
+        ByteBuffer source = value.duplicate();
+        while(source.hasRemaining()) {
+            int length = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, length);
+            block.write(scratch, 0, length);
+        }
+    }
+
+    private int pendingBlockSize() {
+        return keyWidth > 0 ? Integer.BYTES + keysBuffer.size() + slotsBuffer.size() + blockBuffer.size()
+                : blockBuffer.size() + (restartCount + 1) * Integer.BYTES;
+    }
+
+    private void flushDataBlock() throws IOException {
+        byte[] payload;
+        if(keyWidth > 0) {
+            ByteArrayOutputStream fixedBuffer = new ByteArrayOutputStream(pendingBlockSize());
+            DataOutputStream fixed = new DataOutputStream(fixedBuffer);
+            fixed.writeInt(blockEntries);
+            keysBuffer.writeTo(fixed);
+            slotsBuffer.writeTo(fixed);
+            blockBuffer.writeTo(fixed);
+            payload = fixedBuffer.toByteArray();
+            keysBuffer.reset();
+            slotsBuffer.reset();
+        } else {
+            for(int i = 0; i < restartCount; i++) {
+                block.writeInt(restarts[i]);
+            }
+            block.writeInt(restartCount);
+            payload = blockBuffer.toByteArray();
+            restartCount = 0;
+        }
+        // the index entry waits for the next block's first key, see separator
+        pendingHandle = writeDataBlock(payload);
+        blockBuffer.reset();
+        blockEntries = 0;
+    }
+
+    private void addIndexEntry(byte[] key) {
+        indexKeys.add(key);
+        indexHandles.add(pendingHandle);
+        pendingHandle = null;
+    }
+
+    /**
+     * The shortest key that is at least {@code last} and below {@code next}, so it still
+     * routes every key of the block that ends with {@code last} to it and none of the next.
+     * Shortening takes the common prefix plus the first byte of {@code last} past it that can
+     * be incremented; when there is none, {@code last} itself is the separator.
+     */
+    static byte[] separator(byte[] last, byte[] next) {
+        int common = Arrays.mismatch(last, next);
+        if(common < 0 || common >= last.length || common >= next.length) {
+            return last;
+        }
+        int first = (last[common] & 0xFF) + 1 < (next[common] & 0xFF) ? common : common + 1;
+        for(int i = first; i < last.length; i++) {
+            if((last[i] & 0xFF) != 0xFF) {
+                byte[] separator = Arrays.copyOf(last, i + 1);
+                separator[i]++;
+                return separator;
+            }
+        }
+        return last;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private BlockHandle writeDataBlock(byte[] payload) throws IOException {
+        Compression codec = Compression.NONE;
+        byte[] body = payload;
+        if(compression != Compression.NONE) {
+            byte[] compressed = compression.compress(payload);
+            if(compressed.length <= payload.length - payload.length * SSTableFormat.MIN_COMPRESSION_SAVING / 100) {
+                codec = compression;
+                body = compressed;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(codec.id());
+        out.writeByte(codec.id());
+        int headerLength = 1;
+        if(codec != Compression.NONE) {
+            byte[] uncompressedLength = ByteBuffer.allocate(Integer.BYTES).putInt(payload.length).array();
+            crc.update(uncompressedLength);
+            out.write(uncompressedLength);
+            headerLength += Integer.BYTES;
+        }
+        crc.update(body);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+        BlockHandle handle = new BlockHandle(position, headerLength + body.length + SSTableFormat.CHECKSUM_LENGTH);
+        position += handle.length();
+        return handle;
+    }
+
+    private BlockHandle writeBlock(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        BlockHandle handle = new BlockHandle(position, payload.length + SSTableFormat.CHECKSUM_LENGTH);
+        position += handle.length();
+        return handle;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if(bytes == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,388 @@
+package org.shulgin.tree;
+
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentMemTable<K,V> implements IMemTable<K,V> {
+    private final ConcurrentSkipListMap<K, Node<V>> map;
+    private final Comparator<? super K> comparator;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger hiddenSize = new AtomicInteger();
+
+    private final AtomicLong byteSize = new AtomicLong();
+
+    public ConcurrentMemTable() {
+        this(null);
+    }
+
+    public ConcurrentMemTable(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        this.map = new ConcurrentSkipListMap<>(comparator);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public int hiddenSize() {
+        return hiddenSize.get();
+    }
+
+    @Override
+    public long byteSize() {
+        return byteSize.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+        return o != null && findNode(o) != null;
+    }
+
+    @Override
+    public V get(Object o) {
+        Node<V> node = o == null ? null : findNode(o);
+        return node != null && !node.isDeleted ? node.value : null;
+    }
+
+    @Override
+    public V put(K k, V v) {
+        if(k == null || v == null) {
+            return null;
+        }
+        Node<V> old = map.put(k, new Node<>(v, false, 0, null));
+        byteSize.addAndGet(old == null ? ObjectSizes.entry(k, v)
+                : ObjectSizes.estimate(v) - ObjectSizes.estimate(old.value));
+        if(old == null) {
+            size.incrementAndGet();
+            hiddenSize.incrementAndGet();
+            return null;
+        }
+        if(old.isDeleted) {
+            size.incrementAndGet();
+            return null;
+        }
+        return old.value;
+    }
+
+    @Override
+    public void putTombstone(K k) {
+        if(k == null) {
+            return;
+        }
+        Node<V> old = map.put(k, new Node<>(null, true, 0, null));
+        if(old == null) {
+            hiddenSize.incrementAndGet();
+            byteSize.addAndGet(ObjectSizes.entry(k, null));
+        } else if(!old.isDeleted) {
+            size.decrementAndGet();
+            byteSize.addAndGet(-ObjectSizes.estimate(old.value));
+        }
+    }
+
+    @Override
+    public void put(K k, V v, long sequence, long newestSnapshot) {
+        if(k != null && v != null) {
+            write(k, v, false, sequence, newestSnapshot);
+        }
+    }
+
+    @Override
+    public void putTombstone(K k, long sequence, long newestSnapshot) {
+        if(k != null) {
+            write(k, null, true, sequence, newestSnapshot);
+        }
+    }
+
+    private void write(K k, V v, boolean isDeleted, long sequence, long newestSnapshot) {
+        // compute may run the function more than once, the last run is the one applied
+        Node<?>[] replaced = new Node<?>[1];
+        map.compute(k, (key, old) -> {
+            replaced[0] = old;
+            if(old == null) {
+                return new Node<>(v, isDeleted, sequence, null);
+            }
+            if(old.sequence > sequence) {
+                return old;
+            }
+            return new Node<>(v, isDeleted, sequence, old.sequence <= newestSnapshot ? old : old.older);
+        });
+        Node<?> old = replaced[0];
+        if(old == null) {
+            hiddenSize.incrementAndGet();
+            byteSize.addAndGet(ObjectSizes.entry(k, v));
+            if(!isDeleted) {
+                size.incrementAndGet();
+            }
+            return;
+        }
+        if(old.sequence > sequence) {
+            return;
+        }
+        if(old.sequence <= newestSnapshot) {
+            byteSize.addAndGet(ObjectSizes.VERSION_OVERHEAD + ObjectSizes.estimate(v));
+        } else {
+            byteSize.addAndGet(ObjectSizes.estimate(v) - ObjectSizes.estimate(old.value));
+        }
+        if(old.isDeleted != isDeleted) {
+            size.addAndGet(isDeleted ? -1 : 1);
+        }
+    }
+
+    @Override
+    public SequencedEntry<K,V> find(K k, long snapshot) {
+        Node<V> node = k == null ? null : findNode(k);
+        Node<V> version = node == null ? null : node.visibleAt(snapshot);
+        return version == null ? null : version.entry(k);
+    }
+
+    @Override
+    public V remove(Object o) {
+        if(o == null) {
+            return null;
+        }
+        Node<V> old;
+        try {
+            old = map.remove(o);
+        } catch (ClassCastException e) {
+            return null;
+        }
+        if(old == null) {
+            return null;
+        }
+        hiddenSize.decrementAndGet();
+        byteSize.addAndGet(-ObjectSizes.entry(o, old.value));
+        if(!old.isDeleted) {
+            size.decrementAndGet();
+        }
+        return old.value;
+    }
+
+    @Override
+    public V markAsDeleted(Object o) {
+        if(o == null) {
+            return null;
+        }
+        K key = asKey(o);
+        while(true) {
+            Node<V> old = findNode(key);
+            if(old == null || old.isDeleted) {
+                return null;
+            }
+            if(map.replace(key, old, new Node<>(old.value, true, old.sequence, old.older))) {
+                size.decrementAndGet();
+                return old.value;
+            }
+        }
+    }
+
+    @Override
+    public K firstKey() {
+        Map.Entry<K, Node<V>> entry = map.firstEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public K lastKey() {
+        Map.Entry<K, Node<V>> entry = map.lastEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public void printTree(PrintWriter pw) {
+        for(Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            pw.println("key:" + entry.getKey() + " value:" + entry.getValue().value
+                    + " isDeleted:" + entry.getValue().isDeleted);
+        }
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        size.set(0);
+        hiddenSize.set(0);
+        byteSize.set(0);
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> iterator() {
+        return entries(map, false);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to) {
+        NavigableMap<K, Node<V>> range = map;
+        if(from != null) {
+            range = range.tailMap(from, true);
+        }
+        if(to != null) {
+            range = range.headMap(to, false);
+        }
+        return entries(range, true);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to, long snapshot) {
+        NavigableMap<K, Node<V>> range = map;
+        if(from != null) {
+            range = range.tailMap(from, true);
+        }
+        if(to != null) {
+            range = range.headMap(to, false);
+        }
+        return snapshot == Long.MAX_VALUE ? entries(range, true) : visibleEntries(range, snapshot);
+    }
+
+    @Override
+    public Iterator<SequencedEntry<K,V>> versions() {
+        Iterator<Map.Entry<K, Node<V>>> entries = map.entrySet().iterator();
+        return new Iterator<>() {
+            private K key;
+            private Node<V> version;
+
+            @Override
+            public boolean hasNext() {
+                return version != null || entries.hasNext();
+            }
+
+            @Override
+            public SequencedEntry<K,V> next() {
+                if(version == null) {
+                    Map.Entry<K, Node<V>> entry = entries.next();
+                    key = entry.getKey();
+                    version = entry.getValue();
+                }
+                SequencedEntry<K,V> result = version.entry(key);
+                version = version.older;
+                return result;
+            }
+        };
+    }
+
+    private Iterator<Map.Entry<K,V>> visibleEntries(NavigableMap<K, Node<V>> range, long snapshot) {
+        Iterator<Map.Entry<K, Node<V>>> entries = range.entrySet().iterator();
+        return new Iterator<>() {
+            private Map.Entry<K,V> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K,V> result = next;
+                next = advance();
+                return result;
+            }
+
+            private Map.Entry<K,V> advance() {
+                while(entries.hasNext()) {
+                    Map.Entry<K, Node<V>> entry = entries.next();
+                    Node<V> version = entry.getValue().visibleAt(snapshot);
+                    if(version != null) {
+                        return version.entry(entry.getKey());
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private Iterator<Map.Entry<K,V>> entries(NavigableMap<K, Node<V>> range, boolean includeDeleted) {
+        Iterator<Map.Entry<K, Node<V>>> entries = range.entrySet().iterator();
+        return new Iterator<>() {
+            private Map.Entry<K,V> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K,V> result = next;
+                next = advance();
+                return result;
+            }
+
+            private Map.Entry<K,V> advance() {
+                while(entries.hasNext()) {
+                    Map.Entry<K, Node<V>> entry = entries.next();
+                    Node<V> node = entry.getValue();
+                    if(!node.isDeleted) {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), node.value);
+                    }
+                    if(includeDeleted) {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), null);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    // The key only reaches a typed map method once findNode has found it, i.e. it is of type K.
+    @SuppressWarnings("unchecked")
+    private K asKey(Object o) {
+        return (K) o;
+    }
+
+    private Node<V> findNode(Object o) {
+        try {
+            return map.get(o);
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    // A version of a key, the latest one when it is the map's value.
+    private static class Node<V> {
+        final V value;
+        final boolean isDeleted;
+        final long sequence;
+        // versions replaced while a snapshot could still read them, newest first
+        final Node<V> older;
+
+        Node(V value, boolean isDeleted, long sequence, Node<V> older) {
+            this.value = value;
+            this.isDeleted = isDeleted;
+            this.sequence = sequence;
+            this.older = older;
+        }
+
+        Node<V> visibleAt(long snapshot) {
+            Node<V> version = this;
+            while(version != null && version.sequence > snapshot) {
+                version = version.older;
+            }
+            return version;
+        }
+
+        <K> SequencedEntry<K,V> entry(K key) {
+            return new SequencedEntry<>(key, isDeleted ? null : value, sequence);
+        }
+    }
+}
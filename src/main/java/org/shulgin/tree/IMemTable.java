@@ -3,19 +3,48 @@ package org.shulgin.tree;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
 
-public interface IMemTable<K,V> {
+public interface IMemTable<K,V> extends Iterable<Map.Entry<K,V>> {
     int size();
     int hiddenSize();
+    long byteSize();
     boolean isEmpty();
     boolean containsKey(Object o);
     V get(Object o);
     V put(K k, V v);
     V remove(Object o);
     V markAsDeleted(Object o);
+    // Records a deletion even when the key is not in the table, so that it shadows older data.
+    void putTombstone(K k);
+    // Sequenced writes, for tables read by snapshots. A write replaces the key's latest version
+    // unless that one has a higher sequence, and the replaced version is kept as an older one
+    // when newestSnapshot >= its sequence, i.e. an open snapshot may still read it. Writes
+    // through put and putTombstone take sequence 0.
+    void put(K k, V v, long sequence, long newestSnapshot);
+    void putTombstone(K k, long sequence, long newestSnapshot);
+    // The newest version with a sequence <= snapshot, a deletion with a null value, or null
+    // when the table holds no such version.
+    SequencedEntry<K,V> find(K k, long snapshot);
     K firstKey();
     K lastKey();
     void printTree(PrintWriter pw);
     void clear();
     Comparator<? super K> comparator();
+    Iterator<Map.Entry<K,V>> iterator();
+    // Keys in [from, to) in order, null bounds are open; deleted keys come back with a null value.
+    Iterator<Map.Entry<K,V>> cursor(K from, K to);
+    // Same as cursor(from, to) as of the snapshot: keys with no version <= snapshot are left out.
+    Iterator<Map.Entry<K,V>> cursor(K from, K to, long snapshot);
+    // Every version held, in key order and newest first within a key.
+    Iterator<SequencedEntry<K,V>> versions();
+    // A reader that may still be reading the table after its owner releases it holds a
+    // reference in between; acquire returns false once the last one is released. Only tables
+    // that free memory on release count references.
+    default boolean acquire() {
+        return true;
+    }
+    default void release() {
+    }
 }
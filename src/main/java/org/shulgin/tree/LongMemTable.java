@@ -0,0 +1,592 @@
+package org.shulgin.tree;
+
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * MemTable specialised for long keys. Keys live in sorted primitive arrays split into leaves of
+ * up to {@link #LEAF_CAPACITY} entries, so there is no node object per entry and lookups are
+ * binary searches over contiguous memory. The Long overloads of {@link IMemTable} box and
+ * unbox around the primitive methods.
+ * <p>
+ * Readers and writers of a leaf hold its monitor, so writes to different leaves don't
+ * contend. The leaf list itself is guarded by a read-write lock: only splitting a full leaf,
+ * removing an emptied one and clear take it exclusively. Cursors re-locate their position on
+ * each step and see concurrent writes the way a skip-list iterator would.
+ */
+public class LongMemTable<V> implements IMemTable<Long, V> {
+    static final int LEAF_CAPACITY = 128;
+    private static final Object TOMBSTONE = new Object();
+    // the key, the sequence and the value slot
+    private static final long ENTRY_OVERHEAD = 2 * Long.BYTES + 8;
+
+    private final List<Leaf> leaves = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger hiddenSize = new AtomicInteger();
+    private final AtomicLong byteSize = new AtomicLong();
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public int hiddenSize() {
+        return hiddenSize.get();
+    }
+
+    @Override
+    public long byteSize() {
+        return byteSize.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+        return o instanceof Long key && containsLong(key);
+    }
+
+    /**
+     * True when the key has an entry, live or deleted.
+     */
+    public boolean containsLong(long key) {
+        lock.readLock().lock();
+        try {
+            return find(key) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V get(Object o) {
+        return o instanceof Long key ? getLong(key) : null;
+    }
+
+    public V getLong(long key) {
+        lock.readLock().lock();
+        try {
+            return unwrap(find(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(Long k, V v) {
+        if(k == null || v == null) {
+            return null;
+        }
+        return putLong(k, v);
+    }
+
+    public V putLong(long key, V value) {
+        if(value == null) {
+            return null;
+        }
+        return insert(key, value, 0, -1);
+    }
+
+    @Override
+    public void put(Long k, V v, long sequence, long newestSnapshot) {
+        if(k != null) {
+            putLong(k, v, sequence, newestSnapshot);
+        }
+    }
+
+    public void putLong(long key, V value, long sequence, long newestSnapshot) {
+        if(value != null) {
+            insert(key, value, sequence, newestSnapshot);
+        }
+    }
+
+    @Override
+    public void putTombstone(Long k) {
+        if(k != null) {
+            putLongTombstone(k);
+        }
+    }
+
+    public void putLongTombstone(long key) {
+        insert(key, TOMBSTONE, 0, -1);
+    }
+
+    @Override
+    public void putTombstone(Long k, long sequence, long newestSnapshot) {
+        if(k != null) {
+            putLongTombstone(k, sequence, newestSnapshot);
+        }
+    }
+
+    public void putLongTombstone(long key, long sequence, long newestSnapshot) {
+        insert(key, TOMBSTONE, sequence, newestSnapshot);
+    }
+
+    @Override
+    public SequencedEntry<Long, V> find(Long k, long snapshot) {
+        if(k == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int leafIndex = leafFor(k);
+            if(leafIndex < 0) {
+                return null;
+            }
+            Leaf leaf = leaves.get(leafIndex);
+            synchronized (leaf) {
+                int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, k);
+                return position >= 0 ? visibleVersion(k, leaf, position, snapshot) : null;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object o) {
+        if(!(o instanceof Long key)) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            int leafIndex = leafFor(key);
+            if(leafIndex < 0) {
+                return null;
+            }
+            Leaf leaf = leaves.get(leafIndex);
+            int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+            if(position < 0) {
+                return null;
+            }
+            Object old = leaf.values[position];
+            leaf.remove(position);
+            if(leaf.size == 0) {
+                leaves.remove(leafIndex);
+                if(leafIndex == 0 && !leaves.isEmpty()) {
+                    leaves.get(0).lowKey = Long.MIN_VALUE;
+                }
+            }
+            hiddenSize.decrementAndGet();
+            byteSize.addAndGet(-(ENTRY_OVERHEAD + estimate(old)));
+            if(old == TOMBSTONE) {
+                return null;
+            }
+            size.decrementAndGet();
+            return unwrap(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Deletes the key in place, keeping its sequence and the versions snapshots may read.
+    @Override
+    public V markAsDeleted(Object o) {
+        if(!(o instanceof Long key)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int leafIndex = leafFor(key);
+            if(leafIndex < 0) {
+                return null;
+            }
+            Leaf leaf = leaves.get(leafIndex);
+            synchronized (leaf) {
+                int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+                if(position < 0 || leaf.values[position] == TOMBSTONE) {
+                    return null;
+                }
+                Object old = leaf.values[position];
+                leaf.values[position] = TOMBSTONE;
+                size.decrementAndGet();
+                byteSize.addAndGet(-estimate(old));
+                return unwrap(old);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Long firstKey() {
+        lock.readLock().lock();
+        try {
+            if(leaves.isEmpty()) {
+                return null;
+            }
+            Leaf first = leaves.get(0);
+            synchronized (first) {
+                return first.keys[0];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Long lastKey() {
+        lock.readLock().lock();
+        try {
+            if(leaves.isEmpty()) {
+                return null;
+            }
+            Leaf last = leaves.get(leaves.size() - 1);
+            synchronized (last) {
+                return last.keys[last.size - 1];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void printTree(PrintWriter pw) {
+        lock.readLock().lock();
+        try {
+            for(Leaf leaf : leaves) {
+                synchronized (leaf) {
+                    for(int i = 0; i < leaf.size; i++) {
+                        boolean isDeleted = leaf.values[i] == TOMBSTONE;
+                        pw.println("key:" + leaf.keys[i] + " value:" + (isDeleted ? null : leaf.values[i])
+                                + " isDeleted:" + isDeleted);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            leaves.clear();
+            size.set(0);
+            hiddenSize.set(0);
+            byteSize.set(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return Comparator.naturalOrder();
+    }
+
+    @Override
+    public Iterator<Map.Entry<Long, V>> iterator() {
+        return new LeafIterator<>(null, null) {
+            @Override
+            void visit(long key, Leaf leaf, int index, Deque<Map.Entry<Long, V>> pending) {
+                if(leaf.values[index] != TOMBSTONE) {
+                    pending.add(entry(key, leaf.values[index], leaf.sequences[index]));
+                }
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Long, V>> cursor(Long from, Long to) {
+        return cursor(from, to, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<Map.Entry<Long, V>> cursor(Long from, Long to, long snapshot) {
+        return new LeafIterator<>(from, to) {
+            @Override
+            void visit(long key, Leaf leaf, int index, Deque<Map.Entry<Long, V>> pending) {
+                SequencedEntry<Long, V> version = visibleVersion(key, leaf, index, snapshot);
+                if(version != null) {
+                    pending.add(version);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Iterator<SequencedEntry<Long, V>> versions() {
+        return new LeafIterator<>(null, null) {
+            @Override
+            void visit(long key, Leaf leaf, int index, Deque<SequencedEntry<Long, V>> pending) {
+                pending.add(entry(key, leaf.values[index], leaf.sequences[index]));
+                for(Version version = leaf.olderAt(index); version != null; version = version.older()) {
+                    pending.add(entry(key, version.value(), version.sequence()));
+                }
+            }
+        };
+    }
+
+    private V insert(long key, Object value, long sequence, long newestSnapshot) {
+        lock.readLock().lock();
+        try {
+            if(!leaves.isEmpty()) {
+                Leaf leaf = leaves.get(leafFor(key));
+                synchronized (leaf) {
+                    int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+                    if(position >= 0 || leaf.size < LEAF_CAPACITY) {
+                        return insert(leaf, position, key, value, sequence, newestSnapshot);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // the table is empty or the leaf is full, and changing the leaf list is exclusive
+        lock.writeLock().lock();
+        try {
+            if(leaves.isEmpty()) {
+                leaves.add(new Leaf(Long.MIN_VALUE));
+            }
+            int leafIndex = leafFor(key);
+            Leaf leaf = leaves.get(leafIndex);
+            int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+            if(position < 0 && leaf.size == LEAF_CAPACITY) {
+                Leaf right = leaf.split();
+                leaves.add(leafIndex + 1, right);
+                if(key >= right.lowKey) {
+                    leaf = right;
+                }
+                position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+            }
+            return insert(leaf, position, key, value, sequence, newestSnapshot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Writes the key at its binarySearch position in the leaf, which has room for a new key.
+    private V insert(Leaf leaf, int position, long key, Object value, long sequence, long newestSnapshot) {
+        if(position >= 0) {
+            Object old = leaf.values[position];
+            long oldSequence = leaf.sequences[position];
+            if(oldSequence > sequence) {
+                // a later write to the key got in first
+                return null;
+            }
+            if(oldSequence <= newestSnapshot) {
+                leaf.keepOlder(position, new Version(old, oldSequence, leaf.olderAt(position)));
+                byteSize.addAndGet(ObjectSizes.VERSION_OVERHEAD + estimate(value));
+            } else {
+                byteSize.addAndGet(estimate(value) - estimate(old));
+            }
+            leaf.values[position] = value;
+            leaf.sequences[position] = sequence;
+            if(old == TOMBSTONE && value != TOMBSTONE) {
+                size.incrementAndGet();
+            } else if(old != TOMBSTONE && value == TOMBSTONE) {
+                size.decrementAndGet();
+            }
+            return unwrap(old);
+        }
+        leaf.insert(-position - 1, key, value, sequence);
+        hiddenSize.incrementAndGet();
+        if(value != TOMBSTONE) {
+            size.incrementAndGet();
+        }
+        byteSize.addAndGet(ENTRY_OVERHEAD + estimate(value));
+        return null;
+    }
+
+    // The last leaf whose low key is <= key, or -1 when there is none. Under the lock.
+    private int leafFor(long key) {
+        int low = 0;
+        int high = leaves.size() - 1;
+        int result = -1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(leaves.get(middle).lowKey <= key) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    private Object find(long key) {
+        int leafIndex = leafFor(key);
+        if(leafIndex < 0) {
+            return null;
+        }
+        Leaf leaf = leaves.get(leafIndex);
+        synchronized (leaf) {
+            int position = Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+            return position >= 0 ? leaf.values[position] : null;
+        }
+    }
+
+    private SequencedEntry<Long, V> visibleVersion(long key, Leaf leaf, int index, long snapshot) {
+        if(leaf.sequences[index] <= snapshot) {
+            return entry(key, leaf.values[index], leaf.sequences[index]);
+        }
+        for(Version version = leaf.olderAt(index); version != null; version = version.older()) {
+            if(version.sequence() <= snapshot) {
+                return entry(key, version.value(), version.sequence());
+            }
+        }
+        return null;
+    }
+
+    private SequencedEntry<Long, V> entry(long key, Object value, long sequence) {
+        return new SequencedEntry<>(key, unwrap(value), sequence);
+    }
+
+    // Slots hold values as Object next to the TOMBSTONE marker; anything else was put as a V.
+    @SuppressWarnings("unchecked")
+    private V unwrap(Object value) {
+        return value == null || value == TOMBSTONE ? null : (V) value;
+    }
+
+    private static long estimate(Object value) {
+        return value == TOMBSTONE ? 0 : ObjectSizes.estimate(value);
+    }
+
+    // A replaced version kept for snapshots, TOMBSTONE as the value of a deletion.
+    private record Version(Object value, long sequence, Version older) {
+    }
+
+    private static final class Leaf {
+        // every key >= lowKey and below the next leaf's lowKey belongs here; unlike keys[0]
+        // it only changes under the exclusive lock, so writers can route without the monitor
+        long lowKey;
+        final long[] keys = new long[LEAF_CAPACITY];
+        final Object[] values = new Object[LEAF_CAPACITY];
+        final long[] sequences = new long[LEAF_CAPACITY];
+        // versions replaced while a snapshot could still read them, allocated on first use
+        Version[] older;
+        int size;
+
+        Leaf(long lowKey) {
+            this.lowKey = lowKey;
+        }
+
+        Version olderAt(int index) {
+            return older == null ? null : older[index];
+        }
+
+        void keepOlder(int index, Version version) {
+            if(older == null) {
+                older = new Version[LEAF_CAPACITY];
+            }
+            older[index] = version;
+        }
+
+        void insert(int position, long key, Object value, long sequence) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            System.arraycopy(sequences, position, sequences, position + 1, size - position);
+            if(older != null) {
+                System.arraycopy(older, position, older, position + 1, size - position);
+                older[position] = null;
+            }
+            keys[position] = key;
+            values[position] = value;
+            sequences[position] = sequence;
+            size++;
+        }
+
+        void remove(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            System.arraycopy(sequences, position + 1, sequences, position, size - position - 1);
+            if(older != null) {
+                System.arraycopy(older, position + 1, older, position, size - position - 1);
+                older[size - 1] = null;
+            }
+            values[--size] = null;
+        }
+
+        Leaf split() {
+            int half = size / 2;
+            Leaf right = new Leaf(keys[half]);
+            right.size = size - half;
+            System.arraycopy(keys, half, right.keys, 0, right.size);
+            System.arraycopy(values, half, right.values, 0, right.size);
+            System.arraycopy(sequences, half, right.sequences, 0, right.size);
+            Arrays.fill(values, half, size, null);
+            if(older != null) {
+                right.older = new Version[LEAF_CAPACITY];
+                System.arraycopy(older, half, right.older, 0, right.size);
+                Arrays.fill(older, half, size, null);
+            }
+            size = half;
+            return right;
+        }
+    }
+
+    // Walks the keys in [from, to), re-locating its position under the read lock on each step.
+    private abstract class LeafIterator<E> implements Iterator<E> {
+        private final Long to;
+        private final Deque<E> pending = new ArrayDeque<>();
+        private long position;
+        private boolean inclusive = true;
+        private boolean exhausted;
+
+        LeafIterator(Long from, Long to) {
+            this.to = to;
+            this.position = from == null ? Long.MIN_VALUE : from;
+        }
+
+        // Queues what the key at the index yields, if anything. Called under the leaf's monitor.
+        abstract void visit(long key, Leaf leaf, int index, Deque<E> pending);
+
+        @Override
+        public boolean hasNext() {
+            while(pending.isEmpty() && !exhausted) {
+                advance();
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll();
+        }
+
+        private void advance() {
+            lock.readLock().lock();
+            try {
+                int leafIndex = Math.max(0, leafFor(position));
+                for(; leafIndex < leaves.size(); leafIndex++) {
+                    Leaf leaf = leaves.get(leafIndex);
+                    synchronized (leaf) {
+                        int index = Arrays.binarySearch(leaf.keys, 0, leaf.size, position);
+                        index = index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+                        for(; index < leaf.size; index++) {
+                            long key = leaf.keys[index];
+                            if(to != null && key >= to) {
+                                exhausted = true;
+                                return;
+                            }
+                            position = key;
+                            inclusive = false;
+                            visit(key, leaf, index, pending);
+                            if(!pending.isEmpty()) {
+                                return;
+                            }
+                        }
+                    }
+                }
+                exhausted = true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
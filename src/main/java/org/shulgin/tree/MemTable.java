@@ -14,6 +14,8 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
 
     private int hiddenSize = 0;
 
+    private long byteSize = 0;
+
     public MemTable() {
     }
 
@@ -31,6 +33,11 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         return hiddenSize;
     }
 
+    @Override
+    public long byteSize() {
+        return byteSize;
+    }
+
     @Override
     public boolean isEmpty() {
         return size == 0;
@@ -61,11 +68,45 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         if(k == null || v == null) {
             return null;
         }
+        return insert(k, v, false, 0, -1);
+    }
+
+    @Override
+    public void putTombstone(K k) {
+        if(k != null) {
+            insert(k, null, true, 0, -1);
+        }
+    }
+
+    @Override
+    public void put(K k, V v, long sequence, long newestSnapshot) {
+        if(k != null && v != null) {
+            insert(k, v, false, sequence, newestSnapshot);
+        }
+    }
+
+    @Override
+    public void putTombstone(K k, long sequence, long newestSnapshot) {
+        if(k != null) {
+            insert(k, null, true, sequence, newestSnapshot);
+        }
+    }
+
+    @Override
+    public SequencedEntry<K,V> find(K k, long snapshot) {
+        Node<K,V> node = isIncorrectKey(k) ? null : findNodeByKey(k);
+        return node == null ? null : visibleVersion(node, snapshot);
+    }
+
+    private V insert(K k, V v, boolean isDeleted, long sequence, long newestSnapshot) {
         Node<K,V> node = new Node<>(k, v);
+        node.isDeleted = isDeleted;
+        node.sequence = sequence;
         if (root == null) {
             root = node;
-            size++;
+            size += isDeleted ? 0 : 1;
             hiddenSize++;
+            byteSize += ObjectSizes.entry(k, v);
             return null;
         }
 
@@ -79,8 +120,9 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
                     head.right = node;
                     node.parent = head;
                     isInserted = true;
-                    size++;
+                    size += isDeleted ? 0 : 1;
                     hiddenSize++;
+                    byteSize += ObjectSizes.entry(k, v);
                 } else {
                     head = head.right;
                 }
@@ -89,17 +131,31 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
                     head.left = node;
                     node.parent = head;
                     isInserted = true;
-                    size++;
+                    size += isDeleted ? 0 : 1;
                     hiddenSize++;
+                    byteSize += ObjectSizes.entry(k, v);
                 } else {
                     head = head.left;
                 }
             } else {
-                if(head.isDeleted) {
-                    size++;
+                if(head.sequence > sequence) {
+                    // a later write to the key got in first
+                    return null;
+                }
+                V oldValue = head.getValue();
+                if(head.isDeleted != isDeleted) {
+                    size += isDeleted ? -1 : 1;
                 }
-                head.isDeleted = false;
-                return head.setValue(node.getValue());
+                if(head.sequence <= newestSnapshot) {
+                    head.older = new Version<>(head.value, head.isDeleted, head.sequence, head.older);
+                    byteSize += ObjectSizes.VERSION_OVERHEAD + ObjectSizes.estimate(v);
+                } else {
+                    byteSize += ObjectSizes.estimate(v) - ObjectSizes.estimate(head.getValue());
+                }
+                head.isDeleted = isDeleted;
+                head.sequence = sequence;
+                head.setValue(v);
+                return oldValue;
             }
         } while (!isInserted);
 
@@ -119,6 +175,7 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
             size = size > 0 ? size - 1 : 0;
             hiddenSize = hiddenSize > 0 ? hiddenSize - 1 : 0;
             oldValue = node.getValue();
+            byteSize -= ObjectSizes.entry(node.getKey(), oldValue);
             removeNode(node);
         }
         return oldValue;
@@ -132,7 +189,7 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         K key = (K) o;
         Node<K, V> node = findNodeByKey(key);
         V oldValue = null;
-        if (node != null) {
+        if (node != null && !node.isDeleted) {
             size = size > 0 ? size - 1 : 0;
             oldValue = node.getValue();
             node.isDeleted = true;
@@ -145,6 +202,7 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         root = null;
         size = 0;
         hiddenSize = 0;
+        byteSize = 0;
     }
 
     @Override
@@ -164,6 +222,47 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         return comparator;
     }
 
+    @Override
+    public Iterator<Map.Entry<K,V>> iterator() {
+        return new InOrderIterator(null, null, false, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to) {
+        return new InOrderIterator(from, to, true, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to, long snapshot) {
+        return new InOrderIterator(from, to, true, snapshot);
+    }
+
+    @Override
+    public Iterator<SequencedEntry<K,V>> versions() {
+        NodeIterator nodes = new NodeIterator(null, null);
+        return new Iterator<>() {
+            private Node<K,V> node;
+            private Version<V> older;
+
+            @Override
+            public boolean hasNext() {
+                return older != null || nodes.hasNext();
+            }
+
+            @Override
+            public SequencedEntry<K,V> next() {
+                if(older != null) {
+                    Version<V> version = older;
+                    older = version.older;
+                    return new SequencedEntry<>(node.getKey(), version.isDeleted ? null : version.value, version.sequence);
+                }
+                node = nodes.next();
+                older = node.older;
+                return new SequencedEntry<>(node.getKey(), node.isDeleted ? null : node.getValue(), node.sequence);
+            }
+        };
+    }
+
     @Override
     public void printTree(PrintWriter pw) {
         int level = 0;
@@ -196,6 +295,18 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         return (o == null || root == null || root.getKey().getClass() != o.getClass());
     }
 
+    private SequencedEntry<K,V> visibleVersion(Node<K,V> node, long snapshot) {
+        if(node.sequence <= snapshot) {
+            return new SequencedEntry<>(node.getKey(), node.isDeleted ? null : node.getValue(), node.sequence);
+        }
+        for(Version<V> version = node.older; version != null; version = version.older) {
+            if(version.sequence <= snapshot) {
+                return new SequencedEntry<>(node.getKey(), version.isDeleted ? null : version.value, version.sequence);
+            }
+        }
+        return null;
+    }
+
     private void removeNode(Node<K,V> node) {
         if(node == null) {
             return;
@@ -247,6 +358,9 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
             Node<K,V> mostLeftNode = mostLeftNode(node.right);
             node.key = mostLeftNode.getKey();
             node.value = mostLeftNode.getValue();
+            node.isDeleted = mostLeftNode.isDeleted;
+            node.sequence = mostLeftNode.sequence;
+            node.older = mostLeftNode.older;
             removeNode(mostLeftNode);
         }
     }
@@ -385,11 +499,128 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
         return rightRotate(a);
     }
 
+    private class InOrderIterator implements Iterator<Map.Entry<K,V>> {
+        private final NodeIterator nodes;
+        private final boolean includeDeleted;
+        private final long snapshot;
+        private Map.Entry<K,V> next;
+
+        InOrderIterator(K from, K to, boolean includeDeleted, long snapshot) {
+            this.nodes = new NodeIterator(from, to);
+            this.includeDeleted = includeDeleted;
+            this.snapshot = snapshot;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K,V> next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K,V> entry = next;
+            advance();
+            return entry;
+        }
+
+        private void advance() {
+            next = null;
+            while(nodes.hasNext()) {
+                Node<K,V> node = nodes.next();
+                if(snapshot == Long.MAX_VALUE) {
+                    if(includeDeleted || !node.isDeleted) {
+                        next = new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.isDeleted ? null : node.getValue());
+                        return;
+                    }
+                    continue;
+                }
+                Map.Entry<K,V> version = visibleVersion(node, snapshot);
+                if(version != null && (includeDeleted || version.getValue() != null)) {
+                    next = version;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Every node with a key in [from, to), in key order.
+    private class NodeIterator implements Iterator<Node<K,V>> {
+        private final Deque<Node<K,V>> stack = new ArrayDeque<>();
+        private final K to;
+        private Node<K,V> next;
+
+        NodeIterator(K from, K to) {
+            this.to = to;
+            if(from == null) {
+                pushLeft(root);
+            } else {
+                seek(from);
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Node<K,V> next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            Node<K,V> node = next;
+            advance();
+            return node;
+        }
+
+        private void advance() {
+            next = null;
+            if(!stack.isEmpty()) {
+                Node<K,V> node = stack.pop();
+                if(to != null && compare(node.getKey(), to) >= 0) {
+                    stack.clear();
+                    return;
+                }
+                pushLeft(node.right);
+                next = node;
+            }
+        }
+
+        // Leaves on the stack exactly the ancestors whose keys are >= from,
+        // so popping continues the in-order walk from the first key in range.
+        private void seek(K from) {
+            Node<K,V> node = root;
+            while(node != null) {
+                if(compare(node.getKey(), from) >= 0) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        private void pushLeft(Node<K,V> node) {
+            while(node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+    }
+
     private static class Node<K,V>{
         K key;
         V value;
         int height;
         boolean isDeleted;
+        long sequence;
+        // versions replaced while a snapshot could still read them, newest first
+        Version<V> older;
         Node<K,V> left;
         Node<K,V> right;
         Node<K,V> parent;
@@ -411,4 +642,7 @@ public class MemTable<K,V> implements IMemTable<K,V>, Serializable {
             return oldValue;
         }
     }
+
+    private record Version<V>(V value, boolean isDeleted, long sequence, Version<V> older) {
+    }
 }
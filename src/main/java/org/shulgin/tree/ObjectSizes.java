@@ -0,0 +1,40 @@
+package org.shulgin.tree;
+
+/**
+ * Rough heap footprint of keys and values, used to size MemTables in bytes. Exact numbers
+ * depend on the JVM; these assume compressed oops and 8-byte alignment.
+ */
+public final class ObjectSizes {
+    public static final int NODE_OVERHEAD = 48;
+    public static final int VERSION_OVERHEAD = 32;
+
+    private ObjectSizes() {
+    }
+
+    public static long estimate(Object o) {
+        if(o == null) {
+            return 0;
+        }
+        if(o instanceof byte[] bytes) {
+            return align(16 + bytes.length);
+        }
+        if(o instanceof String string) {
+            return 24 + align(16 + string.length());
+        }
+        if(o instanceof Long || o instanceof Double) {
+            return 24;
+        }
+        if(o instanceof Number || o instanceof Character || o instanceof Boolean) {
+            return 16;
+        }
+        return 64;
+    }
+
+    public static long entry(Object key, Object value) {
+        return NODE_OVERHEAD + estimate(key) + estimate(value);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,771 @@
+package org.shulgin.tree;
+
+import org.shulgin.codec.Codec;
+import org.shulgin.codec.Codecs;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MemTable that keeps serialized keys and values in direct memory. The index is a skip list
+ * whose nodes live in the same arenas and link to each other by address, so the heap holds
+ * no object per entry.
+ * <pre>
+ * entry:   [int keyLength][int valueLength][long sequence][long older][key][value]
+ * node:    [long key][long version][long next] x height
+ * address: [int chunk][int offset], the sign bit marks a deleted version
+ * </pre>
+ * A node points at the entry it was created with, for its key, and at the key's latest
+ * version, -1 once the key is removed. {@code older} is the address of the version an entry
+ * replaced when a snapshot could still read it, or -1. Nodes are ordered by their encoded
+ * keys when the key codec is order preserving and by the decoded keys otherwise.
+ * <p>
+ * Writers link nodes and swap versions with compare-and-set, readers never lock. Arenas are
+ * append-only: overwritten entries and removed nodes stay in place until the table is
+ * flushed. put, remove and markAsDeleted return null instead of deserializing the previous
+ * value.
+ * <p>
+ * The arenas are freed when the last reference to the table is released, rather than when
+ * the garbage collector gets to the buffers. The table starts with one reference, its
+ * owner's; readers that may outlive the owner's hold on it acquire one of their own.
+ */
+public class OffHeapMemTable<K,V> implements IMemTable<K,V>, AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    private static final int SEQUENCE_OFFSET = 2 * Integer.BYTES;
+    private static final int OLDER_OFFSET = SEQUENCE_OFFSET + Long.BYTES;
+    private static final int ENTRY_HEADER = OLDER_OFFSET + Long.BYTES;
+    private static final int VERSION_OFFSET = Long.BYTES;
+    private static final int NEXT_OFFSET = VERSION_OFFSET + Long.BYTES;
+    private static final int MAX_HEIGHT = 12;
+    private static final long DELETED = Long.MIN_VALUE;
+    private static final long NO_VERSION = -1;
+    private static final long NIL = -1;
+    private static final long HEAD = -2;
+    // node fields are read and swapped concurrently, which needs 8-byte aligned addresses
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle KEY_WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final AtomicLongArray head = new AtomicLongArray(MAX_HEIGHT);
+    private final Comparator<? super K> comparator;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final boolean rawKeys;
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    // the buffers as allocated, chunks holds aligned slices of them which cannot be freed
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile ByteBuffer[] chunkView = new ByteBuffer[0];
+    private int chunkOffset = 0;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger hiddenSize = new AtomicInteger();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    public OffHeapMemTable() {
+        this(null, DEFAULT_CHUNK_SIZE);
+    }
+
+    public OffHeapMemTable(Comparator<? super K> comparator, int chunkSize) {
+        this(comparator, chunkSize, Codecs.serializable(), Codecs.serializable());
+    }
+
+    public OffHeapMemTable(Comparator<? super K> comparator, int chunkSize, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.rawKeys = keyCodec.orderPreserving();
+        this.chunkSize = chunkSize;
+        for(int level = 0; level < MAX_HEIGHT; level++) {
+            head.set(level, NIL);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public int hiddenSize() {
+        return hiddenSize.get();
+    }
+
+    @Override
+    public long byteSize() {
+        return usedBytes.get();
+    }
+
+    public synchronized long allocatedBytes() {
+        long total = 0;
+        for(ByteBuffer chunk : chunks) {
+            total += chunk.capacity();
+        }
+        return total;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+        long node = node(o);
+        return node != NIL && version(node) != NO_VERSION;
+    }
+
+    @Override
+    public V get(Object o) {
+        long node = node(o);
+        long address = node == NIL ? NO_VERSION : version(node);
+        if(address == NO_VERSION || (address & DELETED) != 0) {
+            return null;
+        }
+        try {
+            return decodeValue(address);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public V put(K k, V v) {
+        put(k, v, 0, -1);
+        return null;
+    }
+
+    @Override
+    public void putTombstone(K k) {
+        putTombstone(k, 0, -1);
+    }
+
+    @Override
+    public void put(K k, V v, long sequence, long newestSnapshot) {
+        if(k == null || v == null) {
+            return;
+        }
+        try {
+            byte[] key = keyCodec.encode(k);
+            insert(k, key, write(key, valueCodec.encode(v), sequence), sequence, newestSnapshot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void putTombstone(K k, long sequence, long newestSnapshot) {
+        if(k == null) {
+            return;
+        }
+        try {
+            byte[] key = keyCodec.encode(k);
+            insert(k, key, write(key, new byte[0], sequence) | DELETED, sequence, newestSnapshot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void insert(K k, byte[] key, long address, long sequence, long newestSnapshot) {
+        long[] prev = new long[MAX_HEIGHT];
+        long[] next = new long[MAX_HEIGHT];
+        long node = NIL;
+        long x = HEAD;
+        for(int level = MAX_HEIGHT - 1; level >= 0 && node == NIL; level--) {
+            node = seek(k, key, x, level, prev, next);
+            x = prev[level];
+        }
+        if(node == NIL) {
+            node = link(k, key, address, prev, next);
+            if(node == NIL) {
+                hiddenSize.incrementAndGet();
+                if((address & DELETED) == 0) {
+                    size.incrementAndGet();
+                }
+                return;
+            }
+        }
+        long old;
+        while(true) {
+            old = version(node);
+            if(old == NO_VERSION) {
+                setOlder(address, NO_VERSION);
+            } else if(sequence(old) > sequence) {
+                return;
+            } else {
+                setOlder(address, sequence(old) <= newestSnapshot ? old : older(old));
+            }
+            if(casVersion(node, old, address)) {
+                break;
+            }
+        }
+        boolean isDeleted = (address & DELETED) != 0;
+        if(old == NO_VERSION) {
+            hiddenSize.incrementAndGet();
+            if(!isDeleted) {
+                size.incrementAndGet();
+            }
+        } else if(((old & DELETED) != 0) != isDeleted) {
+            size.addAndGet(isDeleted ? -1 : 1);
+        }
+    }
+
+    // Links a new node for the key between prev and next, level by level from the bottom.
+    // Returns NIL once linked, or the node another writer linked for the same key first.
+    private long link(K k, byte[] key, long address, long[] prev, long[] next) {
+        int height = randomHeight();
+        long node = allocate(NEXT_OFFSET + height * Long.BYTES);
+        ByteBuffer chunk = chunk(node);
+        int offset = (int) node;
+        LONGS.set(chunk, offset, address & ~DELETED);
+        LONGS.set(chunk, offset + VERSION_OFFSET, address);
+        for(int level = 0; level < height; level++) {
+            while(true) {
+                LONGS.set(chunk, offset + NEXT_OFFSET + level * Long.BYTES, next[level]);
+                if(casNext(prev[level], level, next[level], node)) {
+                    break;
+                }
+                long existing = seek(k, key, prev[level], level, prev, next);
+                if(existing != NIL) {
+                    // only possible at level 0, before the node is reachable
+                    return existing;
+                }
+            }
+        }
+        return NIL;
+    }
+
+    // Walks one level from the start node, which precedes the key, and records the last node
+    // before the key and the one after it. Returns the node holding the key, or NIL.
+    private long seek(K k, byte[] key, long start, int level, long[] prev, long[] next) {
+        long x = start;
+        long n = nextNode(x, level);
+        while(n != NIL) {
+            int cmp = compare(k, key, n);
+            if(cmp == 0) {
+                return n;
+            }
+            if(cmp < 0) {
+                break;
+            }
+            x = n;
+            n = nextNode(x, level);
+        }
+        prev[level] = x;
+        next[level] = n;
+        return NIL;
+    }
+
+    @Override
+    public SequencedEntry<K,V> find(K k, long snapshot) {
+        long node = node(k);
+        if(node == NIL) {
+            return null;
+        }
+        long version = visibleVersion(version(node), snapshot);
+        return version == NO_VERSION ? null : entry(k, version);
+    }
+
+    @Override
+    public V remove(Object o) {
+        long node = node(o);
+        if(node == NIL) {
+            return null;
+        }
+        while(true) {
+            long old = version(node);
+            if(old == NO_VERSION) {
+                return null;
+            }
+            if(casVersion(node, old, NO_VERSION)) {
+                hiddenSize.decrementAndGet();
+                if((old & DELETED) == 0) {
+                    size.decrementAndGet();
+                }
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public V markAsDeleted(Object o) {
+        long node = node(o);
+        if(node == NIL) {
+            return null;
+        }
+        while(true) {
+            long old = version(node);
+            if(old == NO_VERSION || (old & DELETED) != 0) {
+                return null;
+            }
+            if(casVersion(node, old, old | DELETED)) {
+                size.decrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public K firstKey() {
+        long node = nextNode(HEAD, 0);
+        while(node != NIL && version(node) == NO_VERSION) {
+            node = nextNode(node, 0);
+        }
+        return node == NIL ? null : decodeKey(node);
+    }
+
+    @Override
+    public K lastKey() {
+        long node = lastBefore(null, null);
+        while(node != HEAD && version(node) == NO_VERSION) {
+            node = lastBefore(decodeKey(node), keyBytes(node));
+        }
+        return node == HEAD ? null : decodeKey(node);
+    }
+
+    // The last node before the key, or the last node at all without one; HEAD when none is.
+    private long lastBefore(K k, byte[] key) {
+        long x = HEAD;
+        for(int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long n = nextNode(x, level);
+            while(n != NIL && (key == null || compare(k, key, n) > 0)) {
+                x = n;
+                n = nextNode(x, level);
+            }
+        }
+        return x;
+    }
+
+    @Override
+    public void printTree(PrintWriter pw) {
+        for(long node = nextNode(HEAD, 0); node != NIL; node = nextNode(node, 0)) {
+            long version = version(node);
+            if(version != NO_VERSION) {
+                pw.println("key:" + decodeKey(node) + " address:" + (version & ~DELETED)
+                        + " isDeleted:" + ((version & DELETED) != 0));
+            }
+        }
+    }
+
+    @Override
+    public boolean acquire() {
+        while(true) {
+            int current = references.get();
+            if(current == 0) {
+                return false;
+            }
+            if(references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if(references.decrementAndGet() == 0) {
+            free();
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private synchronized void free() {
+        chunkView = new ByteBuffer[0];
+        chunks.clear();
+        for(ByteBuffer arena : arenas) {
+            invokeCleaner(arena);
+        }
+        arenas.clear();
+    }
+
+    // Same as SSTableReader.unmap: there is no public way to free a direct buffer in release
+    // 19, so it goes through Unsafe.invokeCleaner when available and is otherwise left to
+    // the garbage collector.
+    private static void invokeCleaner(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) { }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for(int level = 0; level < MAX_HEIGHT; level++) {
+            head.set(level, NIL);
+        }
+        chunks.clear();
+        arenas.clear();
+        chunkView = new ByteBuffer[0];
+        chunkOffset = 0;
+        size.set(0);
+        hiddenSize.set(0);
+        usedBytes.set(0);
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> iterator() {
+        Iterator<Map.Entry<K,V>> entries = cursor(null, null);
+        return new Iterator<>() {
+            private Map.Entry<K,V> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K,V> result = next;
+                next = advance();
+                return result;
+            }
+
+            private Map.Entry<K,V> advance() {
+                while(entries.hasNext()) {
+                    Map.Entry<K,V> entry = entries.next();
+                    if(entry.getValue() != null) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to) {
+        return cursor(from, to, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> cursor(K from, K to, long snapshot) {
+        byte[] toKey;
+        long start;
+        try {
+            toKey = to == null ? null : keyCodec.encode(to);
+            start = from == null ? nextNode(HEAD, 0) : nextNode(lastBefore(from, keyCodec.encode(from)), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Iterator<>() {
+            private long node = start;
+            private Map.Entry<K,V> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K,V> result = next;
+                next = advance();
+                return result;
+            }
+
+            private Map.Entry<K,V> advance() {
+                while(node != NIL) {
+                    long current = node;
+                    if(toKey != null && compare(to, toKey, current) <= 0) {
+                        node = NIL;
+                        return null;
+                    }
+                    node = nextNode(current, 0);
+                    long version = visibleVersion(version(current), snapshot);
+                    if(version != NO_VERSION) {
+                        return entry(decodeKey(current), version);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<SequencedEntry<K,V>> versions() {
+        return new Iterator<>() {
+            private long node = nextNode(HEAD, 0);
+            private K key;
+            private long version = NO_VERSION;
+
+            @Override
+            public boolean hasNext() {
+                while(version == NO_VERSION && node != NIL) {
+                    version = version(node);
+                    key = version == NO_VERSION ? null : decodeKey(node);
+                    node = nextNode(node, 0);
+                }
+                return version != NO_VERSION;
+            }
+
+            @Override
+            public SequencedEntry<K,V> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SequencedEntry<K,V> result = entry(key, version);
+                version = older(version);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Iterates every version, in key order and newest first within a key, as read-only views
+     * over the arena, so they can be copied to a file without a serialization round trip.
+     * Deletions come with a null value.
+     */
+    public Iterator<SequencedEntry<ByteBuffer, ByteBuffer>> serializedVersions() {
+        return new Iterator<>() {
+            private long node = nextNode(HEAD, 0);
+            private long version = NO_VERSION;
+
+            @Override
+            public boolean hasNext() {
+                while(version == NO_VERSION && node != NIL) {
+                    version = version(node);
+                    node = nextNode(node, 0);
+                }
+                return version != NO_VERSION;
+            }
+
+            @Override
+            public SequencedEntry<ByteBuffer, ByteBuffer> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long address = version;
+                version = older(address);
+                return new SequencedEntry<>(key(address),
+                        (address & DELETED) == 0 ? value(address) : null, sequence(address));
+            }
+        };
+    }
+
+    // The node holding the key, or NIL, also when the key is not of the table's key type.
+    @SuppressWarnings("unchecked")
+    private long node(Object o) {
+        if(o == null) {
+            return NIL;
+        }
+        try {
+            K k = (K) o;
+            byte[] key = keyCodec.encode(k);
+            long x = HEAD;
+            for(int level = MAX_HEIGHT - 1; level >= 0; level--) {
+                long n = nextNode(x, level);
+                while(n != NIL) {
+                    int cmp = compare(k, key, n);
+                    if(cmp == 0) {
+                        return n;
+                    }
+                    if(cmp < 0) {
+                        break;
+                    }
+                    x = n;
+                    n = nextNode(x, level);
+                }
+            }
+            return NIL;
+        } catch (ClassCastException e) {
+            return NIL;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Compares the key with the node's key: as unsigned bytes when encodings keep the order,
+    // by decoding the node's key otherwise.
+    private int compare(K k, byte[] key, long node) {
+        if(!rawKeys) {
+            return compareKeys(k, decodeKey(node));
+        }
+        long address = keyAddress(node);
+        ByteBuffer chunk = chunk(address);
+        int offset = (int) address + ENTRY_HEADER;
+        int length = chunk.getInt((int) address);
+        int common = Math.min(key.length, length);
+        int i = 0;
+        // a word at a time, both sides big-endian, then the tail byte by byte
+        for(; i + Long.BYTES <= common; i += Long.BYTES) {
+            long first = (long) KEY_WORDS.get(key, i);
+            long second = chunk.getLong(offset + i);
+            if(first != second) {
+                return Long.compareUnsigned(first, second);
+            }
+        }
+        for(; i < common; i++) {
+            int cmp = Byte.compareUnsigned(key[i], chunk.get(offset + i));
+            if(cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(key.length, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareKeys(K first, K second) {
+        return comparator != null ? comparator.compare(first, second)
+                : ((Comparable<? super K>) first).compareTo(second);
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        while(height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    private long nextNode(long node, int level) {
+        if(node == HEAD) {
+            return head.get(level);
+        }
+        return (long) LONGS.getAcquire(chunk(node), (int) node + NEXT_OFFSET + level * Long.BYTES);
+    }
+
+    private boolean casNext(long node, int level, long expected, long next) {
+        if(node == HEAD) {
+            return head.compareAndSet(level, expected, next);
+        }
+        return LONGS.compareAndSet(chunk(node), (int) node + NEXT_OFFSET + level * Long.BYTES, expected, next);
+    }
+
+    private long keyAddress(long node) {
+        return (long) LONGS.get(chunk(node), (int) node);
+    }
+
+    private long version(long node) {
+        return (long) LONGS.getAcquire(chunk(node), (int) node + VERSION_OFFSET);
+    }
+
+    private boolean casVersion(long node, long expected, long version) {
+        return LONGS.compareAndSet(chunk(node), (int) node + VERSION_OFFSET, expected, version);
+    }
+
+    private long write(byte[] key, byte[] value, long sequence) {
+        long address = allocate(ENTRY_HEADER + key.length + value.length);
+        ByteBuffer chunk = chunk(address);
+        int offset = (int) address;
+        chunk.putInt(offset, key.length);
+        chunk.putInt(offset + Integer.BYTES, value.length);
+        chunk.putLong(offset + SEQUENCE_OFFSET, sequence);
+        chunk.putLong(offset + OLDER_OFFSET, NO_VERSION);
+        chunk.put(offset + ENTRY_HEADER, key);
+        chunk.put(offset + ENTRY_HEADER + key.length, value);
+        return address;
+    }
+
+    private synchronized long allocate(int length) {
+        int aligned = (length + Long.BYTES - 1) & -Long.BYTES;
+        if(chunks.isEmpty() || chunkOffset + aligned > chunks.get(chunks.size() - 1).capacity()) {
+            int capacity = Math.max(chunkSize, aligned);
+            ByteBuffer arena = ByteBuffer.allocateDirect(capacity + 2 * Long.BYTES);
+            arenas.add(arena);
+            chunks.add(arena.alignedSlice(Long.BYTES));
+            chunkView = chunks.toArray(new ByteBuffer[0]);
+            chunkOffset = 0;
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | chunkOffset;
+        chunkOffset += aligned;
+        usedBytes.addAndGet(aligned);
+        return address;
+    }
+
+    // The newest version reachable from the address with a sequence <= snapshot, or NO_VERSION.
+    private long visibleVersion(long address, long snapshot) {
+        while(address != NO_VERSION && sequence(address) > snapshot) {
+            address = older(address);
+        }
+        return address;
+    }
+
+    private SequencedEntry<K,V> entry(K key, long address) {
+        try {
+            return new SequencedEntry<>(key, (address & DELETED) == 0 ? decodeValue(address) : null, sequence(address));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunkView[(int) ((address & ~DELETED) >>> 32)];
+    }
+
+    private long sequence(long address) {
+        return chunk(address).getLong((int) address + SEQUENCE_OFFSET);
+    }
+
+    private long older(long address) {
+        return chunk(address).getLong((int) address + OLDER_OFFSET);
+    }
+
+    private void setOlder(long address, long older) {
+        chunk(address).putLong((int) address + OLDER_OFFSET, older);
+    }
+
+    private ByteBuffer key(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = (int) address;
+        return chunk.slice(offset + ENTRY_HEADER, chunk.getInt(offset)).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer value(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = (int) address;
+        int keyLength = chunk.getInt(offset);
+        return chunk.slice(offset + ENTRY_HEADER + keyLength, chunk.getInt(offset + Integer.BYTES)).asReadOnlyBuffer();
+    }
+
+    private byte[] keyBytes(long node) {
+        ByteBuffer key = key(keyAddress(node));
+        byte[] bytes = new byte[key.remaining()];
+        key.get(bytes);
+        return bytes;
+    }
+
+    private K decodeKey(long node) {
+        ByteBuffer key = key(keyAddress(node));
+        try {
+            return keyCodec.decode(key, key.remaining());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private V decodeValue(long address) throws IOException {
+        ByteBuffer value = value(address);
+        return valueCodec.decode(value, value.remaining());
+    }
+}
@@ -0,0 +1,24 @@
+package org.shulgin.tree;
+
+import java.io.Serial;
+import java.util.AbstractMap;
+
+/**
+ * One version of a key: the value it was given, null for a deletion, and the sequence of the
+ * write. Equality is that of a map entry and ignores the sequence.
+ */
+public class SequencedEntry<K,V> extends AbstractMap.SimpleImmutableEntry<K,V> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+
+    public SequencedEntry(K key, V value, long sequence) {
+        super(key, value);
+        this.sequence = sequence;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,11 @@
+package org.shulgin.wal;
+
+public record LogRecord(byte type, byte[] key, byte[] value) {
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+    /**
+     * Frame type of a batch written by {@link WriteAheadLog#append(List)}. Replay expands it
+     * into its PUT and DELETE records, so it never reaches callers.
+     */
+    public static final byte BATCH = 3;
+}
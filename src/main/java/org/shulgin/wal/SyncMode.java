@@ -0,0 +1,10 @@
+package org.shulgin.wal;
+
+public enum SyncMode {
+    /** Every append is forced to disk before it returns. */
+    SYNC,
+    /** Concurrent appends wait for a shared force, one per batch of writers. */
+    GROUP_COMMIT,
+    /** A background thread forces the log periodically; appends never wait. */
+    ASYNC
+}
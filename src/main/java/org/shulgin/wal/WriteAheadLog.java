@@ -0,0 +1,298 @@
+package org.shulgin.wal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log split into segments, one per MemTable. A segment can be deleted as soon
+ * as the table it belongs to is flushed.
+ * <pre>
+ * record: [int payloadLength][int crc32][byte type][int keyLength][key][int valueLength][value]
+ * batch:  [int payloadLength][int crc32][byte BATCH][int count]([byte type][int keyLength][key][int valueLength][value])*count
+ * </pre>
+ * Replay stops at the first torn or corrupted record. A batch shares one checksum, so it is
+ * replayed either whole or not at all.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+
+    private final File directory;
+    private final String prefix;
+    private final SyncMode syncMode;
+    private final Object syncLock = new Object();
+    private final Thread syncThread;
+    private final List<Long> recoveredSegments;
+
+    private FileChannel channel;
+    private long segment;
+    private long writtenPosition = 0;
+    private volatile long syncedPosition = 0;
+    private volatile boolean closed = false;
+
+    public WriteAheadLog(File directory, String prefix, SyncMode syncMode, long syncIntervalMillis) throws IOException {
+        this(directory, prefix, syncMode, syncIntervalMillis, 0);
+    }
+
+    /**
+     * New segments are numbered from {@code firstSegment} on, or after the newest segment
+     * left over, whichever is greater: an owner that records flushed segment ids elsewhere
+     * must never see an id reused after those segments were deleted.
+     */
+    public WriteAheadLog(File directory, String prefix, SyncMode syncMode, long syncIntervalMillis,
+                         long firstSegment) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.syncMode = syncMode;
+        this.recoveredSegments = List.copyOf(segments());
+        this.segment = Math.max(firstSegment,
+                recoveredSegments.isEmpty() ? 0 : recoveredSegments.get(recoveredSegments.size() - 1) + 1);
+        this.channel = openSegment(segment);
+
+        if(syncMode == SyncMode.ASYNC) {
+            syncThread = new Thread(() -> {
+                try {
+                    while(!closed) {
+                        Thread.sleep(syncIntervalMillis);
+                        sync(Long.MAX_VALUE);
+                    }
+                } catch (InterruptedException | IOException ignored) { }
+            }, "wal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    /**
+     * Segments left over from a previous run, oldest first. They have to be replayed and
+     * deleted by the owner once their contents are safe elsewhere.
+     */
+    public List<Long> recoveredSegments() {
+        return recoveredSegments;
+    }
+
+    private List<Long> segments() {
+        List<Long> segments = new ArrayList<>();
+        String regex = Pattern.quote(prefix) + "\\d+" + Pattern.quote(SUFFIX);
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.isFile() && Pattern.matches(regex, file.getName())) {
+                    String name = file.getName();
+                    segments.add(Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length())));
+                }
+            }
+        }
+        segments.sort(Long::compare);
+        return segments;
+    }
+
+    public synchronized long currentSegment() {
+        return segment;
+    }
+
+    public long append(byte type, byte[] key, byte[] value) throws IOException {
+        int payloadLength = recordLength(key, value);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+        buffer.position(HEADER_LENGTH);
+        putRecord(buffer, type, key, value);
+        return write(buffer);
+    }
+
+    /**
+     * Appends the records as one batch frame under a single checksum.
+     */
+    public long append(List<LogRecord> records) throws IOException {
+        int payloadLength = 1 + Integer.BYTES;
+        for(LogRecord record : records) {
+            payloadLength += recordLength(record.key(), record.value());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+        buffer.position(HEADER_LENGTH);
+        buffer.put(LogRecord.BATCH);
+        buffer.putInt(records.size());
+        for(LogRecord record : records) {
+            putRecord(buffer, record.type(), record.key(), record.value());
+        }
+        return write(buffer);
+    }
+
+    private static int recordLength(byte[] key, byte[] value) {
+        return 1 + Integer.BYTES + key.length + Integer.BYTES + (value == null ? 0 : value.length);
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, byte[] key, byte[] value) {
+        buffer.put(type);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.putInt(value == null ? -1 : value.length);
+        if(value != null) {
+            buffer.put(value);
+        }
+    }
+
+    private long write(ByteBuffer buffer) throws IOException {
+        int payloadLength = buffer.position() - HEADER_LENGTH;
+        buffer.putInt(0, payloadLength);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_LENGTH, payloadLength);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        buffer.flip();
+
+        long position;
+        synchronized (this) {
+            if(closed) {
+                throw new IOException("Log is closed");
+            }
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            writtenPosition += buffer.limit();
+            position = writtenPosition;
+            if(syncMode == SyncMode.SYNC) {
+                channel.force(false);
+                syncedPosition = position;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Blocks until everything up to the given position is on disk. In group commit mode the
+     * first waiter forces the log for everyone who appended before it got the sync lock.
+     * The force runs outside the log's monitor so appends carry on meanwhile; rotate and
+     * close also take the sync lock, so the channel cannot be swapped or closed under it.
+     */
+    public void sync(long position) throws IOException {
+        if(syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if(syncedPosition >= position) {
+                return;
+            }
+            FileChannel target;
+            long targetPosition;
+            synchronized (this) {
+                if(closed) {
+                    return;
+                }
+                target = channel;
+                targetPosition = writtenPosition;
+            }
+            target.force(false);
+            syncedPosition = targetPosition;
+        }
+    }
+
+    public void awaitDurable(long position) throws IOException {
+        if(syncMode == SyncMode.GROUP_COMMIT) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one.
+     *
+     * @return id of the closed segment
+     */
+    public long rotate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                channel.force(false);
+                channel.close();
+                syncedPosition = writtenPosition;
+                long previous = segment;
+                segment++;
+                channel = openSegment(segment);
+                return previous;
+            }
+        }
+    }
+
+    public void deleteSegment(long segment) throws IOException {
+        Files.deleteIfExists(segmentFile(segment).toPath());
+    }
+
+    public List<LogRecord> replay(long segment) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        File file = segmentFile(segment);
+        long remaining = file.length();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(remaining >= HEADER_LENGTH) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                remaining -= HEADER_LENGTH;
+                if(payloadLength <= 0 || payloadLength > remaining) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                remaining -= payloadLength;
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                if(payload[0] == LogRecord.BATCH) {
+                    buffer.get();
+                    for(int count = buffer.getInt(); count > 0; count--) {
+                        records.add(readRecord(buffer));
+                    }
+                } else {
+                    records.add(readRecord(buffer));
+                }
+            }
+        }
+        return records;
+    }
+
+    private static LogRecord readRecord(ByteBuffer buffer) {
+        byte type = buffer.get();
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        int valueLength = buffer.getInt();
+        byte[] value = null;
+        if(valueLength >= 0) {
+            value = new byte[valueLength];
+            buffer.get(value);
+        }
+        return new LogRecord(type, key, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                channel.force(false);
+                channel.close();
+            }
+        }
+        if(syncThread != null) {
+            syncThread.interrupt();
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, prefix + segment + SUFFIX);
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
@@ -1,10 +1,18 @@
 package avl_tree_tests;
 
 import org.junit.jupiter.api.*;
+import org.shulgin.codec.Codecs;
+import org.shulgin.tree.ConcurrentMemTable;
 import org.shulgin.tree.IMemTable;
+import org.shulgin.tree.LongMemTable;
 import org.shulgin.tree.MemTable;
+import org.shulgin.tree.OffHeapMemTable;
+import org.shulgin.tree.SequencedEntry;
 
 import java.io.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 public class MemTableTest {
@@ -18,6 +26,145 @@ public class MemTableTest {
         memTable = new MemTable<>();
     }
 
+    @Test
+    public void cursorTest() {
+        IMemTable<Integer, String> table = new MemTable<>();
+        for(int i = 0; i < 100; i += 2) {
+            table.put(i, "v" + i);
+        }
+        table.markAsDeleted(40);
+
+        Iterator<Map.Entry<Integer, String>> cursor = table.cursor(31, 51);
+        for(int expected = 32; expected < 51; expected += 2) {
+            Map.Entry<Integer, String> entry = cursor.next();
+            Assertions.assertEquals(expected, entry.getKey());
+            Assertions.assertEquals(expected == 40 ? null : "v" + expected, entry.getValue());
+        }
+        Assertions.assertFalse(cursor.hasNext());
+        Assertions.assertEquals(50, countEntries(table.cursor(null, null)));
+        Assertions.assertEquals(49, countEntries(table.iterator()));
+        Assertions.assertEquals(0, countEntries(table.cursor(100, null)));
+    }
+
+    @Test
+    public void longMemTableTest() {
+        LongMemTable<String> table = new LongMemTable<>();
+        for(long i = 999; i >= -1000; i -= 2) {
+            table.putLong(i, "v" + i);
+        }
+        table.putLongTombstone(101);
+        table.putLong(103, "updated");
+        Assertions.assertEquals(999, table.size());
+        Assertions.assertEquals(1000, table.hiddenSize());
+        Assertions.assertNull(table.getLong(101));
+        Assertions.assertTrue(table.containsLong(101));
+        Assertions.assertFalse(table.containsLong(100));
+        Assertions.assertEquals("updated", table.getLong(103));
+        Assertions.assertEquals(-999L, table.firstKey());
+        Assertions.assertEquals(999L, table.lastKey());
+
+        Iterator<Map.Entry<Long, String>> cursor = table.cursor(96L, 106L);
+        for(long expected = 97; expected < 106; expected += 2) {
+            Map.Entry<Long, String> entry = cursor.next();
+            Assertions.assertEquals(expected, entry.getKey());
+            Assertions.assertEquals(expected == 101 ? null : expected == 103 ? "updated" : "v" + expected, entry.getValue());
+        }
+        Assertions.assertFalse(cursor.hasNext());
+        Assertions.assertEquals(1000, countEntries(table.cursor(null, null)));
+        Assertions.assertEquals(999, countEntries(table.iterator()));
+        Assertions.assertEquals("v-1", table.remove(-1L));
+        Assertions.assertEquals(998, table.size());
+    }
+
+    @Test
+    public void versionsTest() {
+        List<IMemTable<Long, String>> tables = List.of(new MemTable<>(), new ConcurrentMemTable<>(),
+                new LongMemTable<>(), new OffHeapMemTable<>(Codecs.LONG.comparator(), 1 << 16, Codecs.LONG, Codecs.STRING));
+        for(IMemTable<Long, String> table : tables) {
+            table.put(1L, "a", 1, -1);
+            // a snapshot at 2 may read "a", but nothing reads "b" once it is replaced
+            table.put(1L, "b", 3, 2);
+            table.putTombstone(1L, 5, 2);
+            table.put(1L, "late", 4, 2);
+            table.put(2L, "x", 6, 2);
+
+            Assertions.assertNull(table.get(1L));
+            Assertions.assertEquals(2, table.hiddenSize());
+            Assertions.assertEquals(1, table.size());
+            Assertions.assertNull(table.find(1L, 0));
+            Assertions.assertEquals("a", table.find(1L, 2).getValue());
+            Assertions.assertEquals(1, table.find(1L, 4).sequence());
+            Assertions.assertNull(table.find(1L, 5).getValue());
+            Assertions.assertNull(table.find(2L, 5));
+
+            Iterator<Map.Entry<Long, String>> cursor = table.cursor(null, null, 2);
+            Assertions.assertEquals(Map.entry(1L, "a"), cursor.next());
+            Assertions.assertFalse(cursor.hasNext());
+
+            Iterator<SequencedEntry<Long, String>> versions = table.versions();
+            long[] expected = {5, 1, 6};
+            for(long sequence : expected) {
+                Assertions.assertEquals(sequence, versions.next().sequence());
+            }
+            Assertions.assertFalse(versions.hasNext());
+        }
+    }
+
+    @Test
+    public void concurrentPutTest() throws Exception{
+        List<IMemTable<Long, String>> tables = List.of(new LongMemTable<>(),
+                new OffHeapMemTable<>(Codecs.LONG.comparator(), 1 << 12, Codecs.LONG, Codecs.STRING));
+        for(IMemTable<Long, String> table : tables) {
+            Thread[] writers = new Thread[8];
+            for(int t = 0; t < writers.length; t++) {
+                int writer = t;
+                // every writer puts every key, so they race on the same nodes and leaves
+                writers[t] = new Thread(() -> {
+                    for(long i = 0; i < 2000; i++) {
+                        table.put((i * 7919) % 2000 - 1000, "v" + writer, writer * 2000 + i, -1);
+                    }
+                });
+                writers[t].start();
+            }
+            for(Thread writer : writers) {
+                writer.join();
+            }
+
+            Assertions.assertEquals(2000, table.size());
+            Assertions.assertEquals(2000, table.hiddenSize());
+            Assertions.assertEquals(-1000L, table.firstKey());
+            Assertions.assertEquals(999L, table.lastKey());
+            Iterator<Map.Entry<Long, String>> entries = table.iterator();
+            for(long expected = -1000; expected < 1000; expected++) {
+                Map.Entry<Long, String> entry = entries.next();
+                Assertions.assertEquals(expected, entry.getKey());
+                // the highest sequence of the key is the last writer's
+                Assertions.assertEquals("v7", entry.getValue());
+            }
+            Assertions.assertFalse(entries.hasNext());
+            table.remove(999L);
+            Assertions.assertEquals(998L, table.lastKey());
+            Assertions.assertEquals(1999, countEntries(table.cursor(null, null)));
+        }
+    }
+
+    @Test
+    public void offHeapReleaseTest() {
+        OffHeapMemTable<Long, String> table = new OffHeapMemTable<>(Codecs.LONG.comparator(), 1 << 12,
+                Codecs.LONG, Codecs.STRING);
+        for(long i = 0; i < 1000; i++) {
+            table.put(i, "v" + i);
+        }
+        Assertions.assertTrue(table.allocatedBytes() > 0);
+        Assertions.assertTrue(table.acquire());
+        table.close();
+        // still held by the reader
+        Assertions.assertEquals("v500", table.get(500L));
+        table.release();
+        Assertions.assertFalse(table.acquire());
+        Assertions.assertEquals(0, table.allocatedBytes());
+    }
+
     @Order(1)
     @Test
     public void putTest() throws Exception{
@@ -114,4 +261,13 @@ public class MemTableTest {
         fis2.close();
         return true;
     }
+
+    private int countEntries(Iterator<? extends Map.Entry<?, String>> iterator) {
+        int count = 0;
+        while(iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,367 @@
+package sstable_tests;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.shulgin.codec.Codecs;
+import org.shulgin.exception.CorruptedFileException;
+import org.shulgin.sstable.BlockCache;
+import org.shulgin.sstable.BlockCacheStats;
+import org.shulgin.sstable.BloomFilter;
+import org.shulgin.sstable.Compression;
+import org.shulgin.sstable.ObjectSerializer;
+import org.shulgin.sstable.SSTableReader;
+import org.shulgin.sstable.SSTableWriter;
+import org.shulgin.tree.IMemTable;
+import org.shulgin.tree.MemTable;
+import org.shulgin.tree.SequencedEntry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SSTableTest {
+    @TempDir
+    File directory;
+
+    @Test
+    public void writeAndReadTest() throws Exception{
+        IMemTable<Integer, String> memTable = new MemTable<>();
+        for(int i = 0; i < 10000; i += 2) {
+            memTable.put(i, "String" + i);
+        }
+        memTable.markAsDeleted(100);
+
+        File file = new File(directory, "table0");
+        try(SSTableWriter<Integer, String> writer = new SSTableWriter<>(file, 512)) {
+            for(Map.Entry<Integer, String> entry : memTable) {
+                writer.append(entry.getKey(), entry.getValue());
+            }
+            writer.finish();
+        }
+
+        try(SSTableReader<Integer, String> reader = new SSTableReader<>(file, Comparator.naturalOrder())) {
+            Assertions.assertEquals(memTable.size(), reader.entryCount());
+            Assertions.assertEquals(0, reader.firstKey());
+            Assertions.assertEquals(9998, reader.lastKey());
+            for(int i = 0; i < 10000; i++) {
+                String expected = i % 2 == 0 && i != 100 ? "String" + i : null;
+                Assertions.assertEquals(expected, reader.get(i));
+            }
+            Assertions.assertNull(reader.get(-1));
+            Assertions.assertNull(reader.get(10000));
+        }
+    }
+
+    @Test
+    public void tombstoneTest() throws Exception{
+        IMemTable<Integer, String> memTable = new MemTable<>();
+        for(int i = 0; i < 1000; i++) {
+            memTable.put(i, "String" + i);
+        }
+        memTable.putTombstone(100);
+        memTable.putTombstone(5000);
+
+        File file = new File(directory, "table2");
+        try(SSTableWriter<Integer, String> writer = new SSTableWriter<>(file, 512)) {
+            Iterator<Map.Entry<Integer, String>> entries = memTable.cursor(null, null);
+            while(entries.hasNext()) {
+                Map.Entry<Integer, String> entry = entries.next();
+                writer.append(entry.getKey(), entry.getValue());
+            }
+            writer.finish();
+        }
+
+        try(SSTableReader<Integer, String> reader = new SSTableReader<>(file, Comparator.naturalOrder())) {
+            Assertions.assertEquals(memTable.hiddenSize(), reader.entryCount());
+            Assertions.assertEquals(2, reader.tombstoneCount());
+            Assertions.assertEquals(5000, reader.lastKey());
+            Assertions.assertNull(reader.get(100));
+            byte[] keyBytes = ObjectSerializer.serialize(100);
+            Map.Entry<Integer, String> tombstone = reader.find(100, keyBytes, BloomFilter.hash(keyBytes));
+            Assertions.assertNotNull(tombstone);
+            Assertions.assertNull(tombstone.getValue());
+            keyBytes = ObjectSerializer.serialize(1000);
+            Assertions.assertNull(reader.find(1000, keyBytes, BloomFilter.hash(keyBytes)));
+            Assertions.assertEquals("String101", reader.get(101));
+        }
+    }
+
+    @Test
+    public void blockCacheTest() throws Exception{
+        BlockCache cache = new BlockCache(16 * 1024);
+        cache.put(0, 0, "hot", 256);
+        Assertions.assertEquals("hot", cache.get(0, 0));
+        for(int i = 1; i < 10000; i++) {
+            cache.put(1, i, "cold", 256);
+        }
+        Assertions.assertEquals("hot", cache.get(0, 0));
+        Assertions.assertNull(cache.get(1, 1));
+
+        cache.invalidate(0);
+        Assertions.assertNull(cache.get(0, 0));
+        BlockCacheStats stats = cache.stats();
+        Assertions.assertEquals(2, stats.hits());
+        Assertions.assertEquals(2, stats.misses());
+        Assertions.assertTrue(stats.evictions() > 0);
+        Assertions.assertTrue(stats.usedBytes() <= stats.capacityBytes());
+
+        File file = new File(directory, "table3");
+        try(SSTableWriter<Integer, String> writer = new SSTableWriter<>(file, 512)) {
+            for(int i = 0; i < 1000; i++) {
+                writer.append(i, "String" + i);
+            }
+            writer.finish();
+        }
+        BlockCache fileCache = new BlockCache(1 << 20);
+        try(SSTableReader<Integer, String> reader = new SSTableReader<>(file, Comparator.naturalOrder(), fileCache, false)) {
+            for(int round = 0; round < 2; round++) {
+                for(int i = 0; i < 1000; i++) {
+                    Assertions.assertEquals("String" + i, reader.get(i));
+                }
+            }
+        }
+        Assertions.assertTrue(fileCache.stats().hits() > 1000);
+        Assertions.assertEquals(0, fileCache.stats().usedBytes());
+    }
+
+    @Test
+    public void mmapReadTest() throws Exception{
+        File file = new File(directory, "table4");
+        try(SSTableWriter<Integer, String> writer = new SSTableWriter<>(file, 512)) {
+            for(int i = 0; i < 1000; i++) {
+                writer.append(i, i % 10 == 0 ? null : "String" + i);
+            }
+            writer.finish();
+        }
+        try(SSTableReader<Integer, String> reader = new SSTableReader<>(file, Comparator.naturalOrder(),
+                new BlockCache(1 << 20), false, true)) {
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals(i % 10 == 0 ? null : "String" + i, reader.get(i));
+            }
+            Iterator<Map.Entry<Integer, String>> entries = reader.iterator(500, 600);
+            for(int i = 500; i < 600; i++) {
+                Assertions.assertEquals(i, entries.next().getKey());
+            }
+            Assertions.assertFalse(entries.hasNext());
+        }
+    }
+
+    @Test
+    public void codecTest() throws Exception{
+        File file = new File(directory, "table5");
+        try(SSTableWriter<String, Long> writer = new SSTableWriter<>(file, 256, 0.01, 0, 0,
+                Codecs.STRING, Codecs.LONG)) {
+            for(int i = 0; i < 1000; i++) {
+                writer.append(String.format("key%04d", i), i % 7 == 0 ? null : (long) i - 500);
+            }
+            writer.finish();
+        }
+        try(SSTableReader<String, Long> reader = new SSTableReader<>(file, Codecs.STRING.comparator(),
+                Codecs.STRING, Codecs.LONG, null, true, false)) {
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals(i % 7 == 0 ? null : (long) i - 500, reader.get(String.format("key%04d", i)));
+            }
+            Assertions.assertNull(reader.get("key"));
+            Assertions.assertNull(reader.get("key0500a"));
+            Assertions.assertEquals("key0999", reader.lastKey());
+        }
+
+        Assertions.assertTrue(Codecs.STRING.comparator().compare("\uFFFF", "\uD83D\uDE00") < 0);
+        byte[] negative = Codecs.INTEGER.encode(-1);
+        byte[] positive = Codecs.INTEGER.encode(1);
+        Assertions.assertTrue(Arrays.compareUnsigned(negative, positive) < 0);
+        Assertions.assertEquals(-1, Codecs.INTEGER.decode(ByteBuffer.wrap(negative), negative.length));
+    }
+
+    @Test
+    public void versionsTest() throws Exception{
+        File prefixed = new File(directory, "table8");
+        File fixed = new File(directory, "table9");
+        try(SSTableWriter<Integer, String> prefixedWriter = new SSTableWriter<>(prefixed, 256);
+            SSTableWriter<Long, String> fixedWriter = new SSTableWriter<>(fixed, 256, 0.01, 0, 30,
+                    Codecs.LONG, Codecs.STRING)) {
+            for(int i = 0; i < 1000; i++) {
+                for(int version = 3; version >= 1; version--) {
+                    String value = version == 2 && i % 7 == 0 ? null : "v" + version + "-" + i;
+                    prefixedWriter.append(i, value, version * 10);
+                    fixedWriter.append((long) i, value, version * 10);
+                }
+            }
+            prefixedWriter.finish();
+            fixedWriter.finish();
+        }
+
+        try(SSTableReader<Integer, String> prefixedReader = new SSTableReader<>(prefixed, Comparator.naturalOrder());
+            SSTableReader<Long, String> fixedReader = new SSTableReader<>(fixed, Codecs.LONG.comparator(),
+                    Codecs.LONG, Codecs.STRING, null, true, false)) {
+            Assertions.assertEquals(3000, prefixedReader.entryCount());
+            for(int i = 0; i < 1000; i++) {
+                byte[] keyBytes = ObjectSerializer.serialize(i);
+                byte[] longBytes = Codecs.LONG.encode((long) i);
+                long hash = BloomFilter.hash(keyBytes);
+                long longHash = BloomFilter.hash(longBytes);
+                Assertions.assertNull(prefixedReader.find(i, keyBytes, hash, 5));
+                Assertions.assertNull(fixedReader.find((long) i, longBytes, longHash, 5));
+                for(int snapshot : new int[]{10, 25, 30}) {
+                    int version = snapshot / 10;
+                    String expected = version == 2 && i % 7 == 0 ? null : "v" + version + "-" + i;
+                    Assertions.assertEquals(expected, prefixedReader.find(i, keyBytes, hash, snapshot).getValue());
+                    Assertions.assertEquals(expected, fixedReader.find((long) i, longBytes, longHash, snapshot).getValue());
+                }
+                Assertions.assertEquals("v3-" + i, prefixedReader.get(i));
+                Assertions.assertEquals("v3-" + i, fixedReader.get((long) i));
+            }
+
+            Iterator<Map.Entry<Integer, String>> scan = prefixedReader.iterator(100, 200, 20);
+            Iterator<Map.Entry<Long, String>> fixedScan = fixedReader.iterator(100L, 200L, 20);
+            for(int i = 100; i < 200; i++) {
+                String expected = i % 7 == 0 ? null : "v2-" + i;
+                Map.Entry<Integer, String> entry = scan.next();
+                Assertions.assertEquals(i, entry.getKey());
+                Assertions.assertEquals(expected, entry.getValue());
+                Assertions.assertEquals(expected, fixedScan.next().getValue());
+            }
+            Assertions.assertFalse(scan.hasNext());
+            Assertions.assertFalse(fixedScan.hasNext());
+
+            int versions = 0;
+            for(Iterator<SequencedEntry<Long, String>> all = fixedReader.versions(); all.hasNext(); versions++) {
+                Assertions.assertEquals(30 - versions % 3 * 10, all.next().sequence());
+            }
+            Assertions.assertEquals(3000, versions);
+        }
+    }
+
+    @Test
+    public void compressionTest() throws Exception{
+        Random random = new Random(42);
+        String[] values = new String[5000];
+        for(int i = 0; i < values.length; i++) {
+            if(i % 50 == 0) {
+                byte[] noise = new byte[200];
+                random.nextBytes(noise);
+                values[i] = Base64.getEncoder().encodeToString(noise);
+            } else {
+                values[i] = "{\"id\":" + i + ",\"name\":\"user" + i % 100 + "\",\"tags\":[\"a\",\"b\",\"c\"],\"active\":true}";
+            }
+        }
+
+        Map<Compression, Long> sizes = new EnumMap<>(Compression.class);
+        for(Compression compression : Compression.values()) {
+            File file = new File(directory, "table_" + compression);
+            try(SSTableWriter<Long, String> writer = new SSTableWriter<>(file, 4096, 0.01, 0, 0,
+                    Codecs.LONG, Codecs.STRING, compression)) {
+                for(int i = 0; i < values.length; i++) {
+                    writer.append((long) i, values[i]);
+                }
+                sizes.put(compression, writer.finish());
+            }
+            for(boolean mmap : new boolean[] {false, true}) {
+                try(SSTableReader<Long, String> reader = new SSTableReader<>(file, Codecs.LONG.comparator(),
+                        Codecs.LONG, Codecs.STRING, new BlockCache(1 << 20), true, mmap)) {
+                    for(int i = 0; i < values.length; i++) {
+                        Assertions.assertEquals(values[i], reader.get((long) i));
+                    }
+                    int count = 0;
+                    Iterator<Map.Entry<Long, String>> entries = reader.iterator();
+                    while(entries.hasNext()) {
+                        Assertions.assertEquals(values[count++], entries.next().getValue());
+                    }
+                    Assertions.assertEquals(values.length, count);
+                }
+            }
+        }
+        Assertions.assertTrue(sizes.get(Compression.LZ4) * 2 < sizes.get(Compression.NONE));
+        Assertions.assertTrue(sizes.get(Compression.DEFLATE) < sizes.get(Compression.LZ4));
+    }
+
+    @Test
+    public void prefixCompressedKeysTest() throws Exception{
+        List<String> keys = new ArrayList<>();
+        for(int tenant = 0; tenant < 20; tenant++) {
+            for(int user = 0; user < 1000; user++) {
+                keys.add(String.format("tenant/%05d/user/%06d/profile", tenant, user * 2));
+            }
+        }
+        long keyBytes = 0;
+        File file = new File(directory, "table_prefix");
+        try(SSTableWriter<String, String> writer = new SSTableWriter<>(file, 256, 0.01, 0, 0,
+                Codecs.STRING, Codecs.STRING, Compression.NONE)) {
+            for(String key : keys) {
+                writer.append(key, key.length() % 3 == 0 ? null : "v");
+                keyBytes += key.length();
+            }
+            writer.finish();
+        }
+        Assertions.assertTrue(file.length() < keyBytes * 3 / 4);
+
+        try(SSTableReader<String, String> reader = new SSTableReader<>(file, Codecs.STRING.comparator(),
+                Codecs.STRING, Codecs.STRING, null, true, false)) {
+            for(String key : keys) {
+                Assertions.assertEquals(key.length() % 3 == 0 ? null : "v", reader.get(key));
+                Assertions.assertNull(reader.get(key.replace("/profile", "/")));
+                Assertions.assertNull(reader.get(key + "x"));
+            }
+            Assertions.assertNull(reader.get("tenant/00007/user/000001/profile"));
+
+            Iterator<Map.Entry<String, String>> range = reader.iterator("tenant/00003/user/000999", "tenant/00004/user/000004");
+            List<String> found = new ArrayList<>();
+            range.forEachRemaining(entry -> found.add(entry.getKey()));
+            Assertions.assertEquals(502, found.size());
+            Assertions.assertEquals("tenant/00003/user/001000/profile", found.get(0));
+            Assertions.assertEquals("tenant/00004/user/000002/profile", found.get(found.size() - 1));
+
+            int count = 0;
+            Iterator<Map.Entry<String, String>> all = reader.iterator();
+            while(all.hasNext()) {
+                Assertions.assertEquals(keys.get(count++), all.next().getKey());
+            }
+            Assertions.assertEquals(keys.size(), count);
+        }
+    }
+
+    @Test
+    public void corruptedBlockTest() throws Exception{
+        File file = new File(directory, "table1");
+        try(SSTableWriter<Integer, String> writer = new SSTableWriter<>(file)) {
+            for(int i = 0; i < 100; i++) {
+                writer.append(i, "String" + i);
+            }
+            writer.finish();
+        }
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(10);
+            raf.write(raf.read() ^ 0xFF);
+        }
+
+        try(SSTableReader<Integer, String> reader = new SSTableReader<>(file, Comparator.naturalOrder())) {
+            Assertions.assertThrows(CorruptedFileException.class, () -> reader.get(0));
+        }
+    }
+
+    @Test
+    public void bloomFilterTest() throws Exception{
+        BloomFilter filter = BloomFilter.create(10000, 0.01);
+        for(int i = 0; i < 10000; i++) {
+            filter.add(BloomFilter.hash(ObjectSerializer.serialize(i)));
+        }
+        for(int i = 0; i < 10000; i++) {
+            Assertions.assertTrue(filter.mightContain(BloomFilter.hash(ObjectSerializer.serialize(i))));
+        }
+        int falsePositives = 0;
+        for(int i = 10000; i < 110000; i++) {
+            if(filter.mightContain(BloomFilter.hash(ObjectSerializer.serialize(i)))) {
+                falsePositives++;
+            }
+        }
+        Assertions.assertTrue(falsePositives < 2000, "False positives: " + falsePositives);
+    }
+}
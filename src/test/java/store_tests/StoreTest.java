@@ -0,0 +1,764 @@
+package store_tests;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.shulgin.codec.Codecs;
+import org.shulgin.compaction.CompactionStyle;
+import org.shulgin.service.MemTableType;
+import org.shulgin.service.ScanIterator;
+import org.shulgin.service.ShardedStore;
+import org.shulgin.service.Snapshot;
+import org.shulgin.service.Store;
+import org.shulgin.service.StoreMetrics;
+import org.shulgin.service.StoreOptions;
+import org.shulgin.service.WriteBatch;
+import org.shulgin.sstable.ObjectSerializer;
+import org.shulgin.wal.LogRecord;
+import org.shulgin.wal.SyncMode;
+import org.shulgin.wal.WriteAheadLog;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StoreTest {
+    @TempDir
+    File directory;
+
+    @Test
+    public void reopenTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1050; i++) {
+                store.put(i, "String" + i);
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1050; i++) {
+                Assertions.assertEquals("String" + i, store.get(i));
+            }
+            Assertions.assertNull(store.get(1050));
+            Assertions.assertTrue(store.blockCacheStats().hits() > 0);
+            store.put(1050, "String1050");
+            Assertions.assertEquals("String1050", store.get(1050));
+        }
+        Assertions.assertEquals(13, new File(path).listFiles().length);
+        Assertions.assertTrue(new File(path, "table_manifest").exists());
+    }
+
+    @Test
+    public void metricsTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        ObjectName name = new ObjectName("org.shulgin:type=Store,name="
+                + ObjectName.quote(new File(path, "table").getAbsolutePath()));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            StoreMetrics metrics = store.metrics();
+            Assertions.assertEquals(1000, metrics.writeLatency().count());
+            Assertions.assertTrue(metrics.writeLatency().p50Nanos() <= metrics.writeLatency().p99Nanos());
+            Assertions.assertTrue(metrics.writeLatency().p99Nanos() <= metrics.writeLatency().maxNanos());
+            Assertions.assertEquals(0, metrics.backgroundErrors());
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals("String" + i, store.get(i));
+            }
+            Assertions.assertNull(store.get(1000));
+            store.put(1000, "String1000");
+            Assertions.assertEquals("String1000", store.get(1000));
+
+            StoreMetrics metrics = store.metrics();
+            Assertions.assertEquals(1002, metrics.getLatency().count());
+            Assertions.assertEquals(1, metrics.memTableHits());
+            Assertions.assertEquals(1000, metrics.fileHits());
+            Assertions.assertEquals(1, metrics.misses());
+            Assertions.assertTrue(metrics.fileProbes() >= 1000);
+            Assertions.assertEquals(10, metrics.fileBlockReads().size());
+            Assertions.assertTrue(metrics.fileBlockReads().values().stream().allMatch(reads -> reads > 0));
+            Assertions.assertEquals(1002L, server.getAttribute(name, "GetCount"));
+            Assertions.assertEquals(1000L, server.getAttribute(name, "FileHits"));
+        }
+        Assertions.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void shardedStoreTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(ShardedStore<Long, String> store = new ShardedStore<>(4, 100, path, "table", options,
+                Codecs.LONG, Codecs.STRING)) {
+            for(long i = 0; i < 2000; i++) {
+                store.put(i, "String" + i);
+            }
+            WriteBatch<Long, String> batch = new WriteBatch<>();
+            for(long i = 0; i < 2000; i += 10) {
+                batch.delete(i);
+            }
+            batch.put(5L, "Batch5");
+            store.write(batch);
+            Assertions.assertEquals("Batch5", store.get(5L));
+            Assertions.assertNull(store.get(10L));
+            Assertions.assertEquals(4, store.metrics().size());
+            Assertions.assertTrue(store.metrics().stream().allMatch(metrics -> metrics.writeLatency().count() > 0));
+        }
+        Assertions.assertEquals(4, new File(path).listFiles().length);
+
+        try(ShardedStore<Long, String> store = new ShardedStore<>(4, 100, path, "table", options,
+                Codecs.LONG, Codecs.STRING)) {
+            for(long i = 0; i < 2000; i++) {
+                String expected = i % 10 == 0 ? null : i == 5 ? "Batch5" : "String" + i;
+                Assertions.assertEquals(expected, store.get(i));
+            }
+            SortedMap<Long, String> found = store.multiGet(List.of(30L, 20L, 21L, 7L));
+            Assertions.assertEquals(List.of(7L, 21L), new ArrayList<>(found.keySet()));
+
+            long expected = 100;
+            try(ScanIterator<Long, String> scan = store.scan(100L, 200L)) {
+                while(scan.hasNext()) {
+                    if(expected % 10 == 0) {
+                        expected++;
+                    }
+                    Assertions.assertEquals(expected++, scan.next().getKey());
+                }
+            }
+            Assertions.assertEquals(200, expected);
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ShardedStore<>(2, 100, path, "table",
+                options, Codecs.LONG, Codecs.STRING));
+    }
+
+    @Test
+    public void manifestTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+        }
+        File halfWritten = new File(path, "table999");
+        try(FileOutputStream out = new FileOutputStream(halfWritten)) {
+            out.write(new byte[100]);
+        }
+        try(FileOutputStream torn = new FileOutputStream(new File(path, "table_manifest"), true)) {
+            torn.write(new byte[] {0, 0, 1, 0, 1, 2, 3});
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            Assertions.assertFalse(halfWritten.exists());
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals("String" + i, store.get(i));
+            }
+            store.put(1000, "String1000");
+        }
+
+        Assertions.assertTrue(new File(path, "table_manifest").delete());
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            Assertions.assertEquals("String1000", store.get(1000));
+        }
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            Assertions.assertEquals(1001, store.lastSequence());
+            Assertions.assertEquals("String0", store.get(0));
+        }
+
+        File listed = Objects.requireNonNull(new File(path).listFiles((dir, name) -> name.matches("table\\d+")))[0];
+        Assertions.assertTrue(listed.delete());
+        Assertions.assertThrows(IOException.class, () -> new Store<Integer, String>(100, path, "table", options));
+    }
+
+    @Test
+    public void offHeapMemTableTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setMemTableType(MemTableType.OFF_HEAP).setOffHeapChunkSize(4096);
+        try(Store<Integer, String> store = new Store<>(300, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            for(int i = 900; i < 1000; i++) {
+                store.put(i, "Updated" + i);
+            }
+            for(int i = 900; i < 1000; i++) {
+                Assertions.assertEquals("Updated" + i, store.get(i));
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(300, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals((i < 900 ? "String" : "Updated") + i, store.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void byteSizeRotationTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE)
+                .setMemTableBytes(16 << 10).setSlowdownImmutableMemTables(1).setMaxImmutableMemTables(2);
+        try(Store<Integer, String> store = new Store<>(Integer.MAX_VALUE, path, "table", options)) {
+            for(int i = 0; i < 2000; i++) {
+                store.put(i, "String" + i);
+                Assertions.assertEquals("String" + i / 2, store.get(i / 2));
+            }
+            Assertions.assertTrue(store.writeStallMetrics().activeMemTableBytes() < 16 << 10);
+        }
+        Assertions.assertTrue(new File(path).listFiles().length > 10);
+    }
+
+    @Test
+    public void parallelFlushTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE).setFlushThreads(4);
+        try(Store<Integer, String> store = new Store<>(50, path, "table", options)) {
+            for(int version = 0; version < 10; version++) {
+                for(int i = 0; i < 200; i++) {
+                    store.put(i, "String" + i + "_" + version);
+                }
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(50, path, "table", options)) {
+            for(int i = 0; i < 200; i++) {
+                Assertions.assertEquals("String" + i + "_9", store.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void readDuringFlushTest() throws Exception{
+        // an off-heap table is freed once flushed, so it must not be freed under a reader
+        for(MemTableType type : List.of(MemTableType.CONCURRENT_SKIP_LIST, MemTableType.OFF_HEAP)) {
+            String path = directory.getAbsolutePath() + "/" + type;
+            StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE).setFlushThreads(2)
+                    .setMemTableType(type).setOffHeapChunkSize(4096);
+            try(Store<Integer, String> store = new Store<>(50, path, "table", options)) {
+                AtomicInteger written = new AtomicInteger();
+                AtomicInteger missing = new AtomicInteger();
+                Thread[] readers = new Thread[4];
+                for(int t = 0; t < readers.length; t++) {
+                    int reader = t;
+                    readers[t] = new Thread(() -> {
+                        int last;
+                        // the newest keys are the ones in tables being rotated and flushed
+                        while((last = written.get()) < 5000) {
+                            if(reader == 0) {
+                                try(ScanIterator<Integer, String> scan = store.scan(Math.max(0, last - 100), last)) {
+                                    while(scan.hasNext()) {
+                                        scan.next();
+                                    }
+                                }
+                                continue;
+                            }
+                            for(int i = Math.max(0, last - 100); i < last; i++) {
+                                if(!("String" + i).equals(store.get(i))) {
+                                    missing.incrementAndGet();
+                                }
+                            }
+                        }
+                    });
+                    readers[t].start();
+                }
+                for(int i = 0; i < 5000; i++) {
+                    store.put(i, "String" + i);
+                    written.set(i + 1);
+                }
+                for(Thread reader : readers) {
+                    reader.join();
+                }
+                Assertions.assertEquals(0, missing.get());
+                Assertions.assertTrue(store.metrics().flushes() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void sizeTieredCompactionTest() throws Exception{
+        compactionTest(new StoreOptions().setCompactionStyle(CompactionStyle.SIZE_TIERED));
+    }
+
+    @Test
+    public void leveledCompactionTest() throws Exception{
+        compactionTest(new StoreOptions().setCompactionStyle(CompactionStyle.LEVELED)
+                .setLevelBaseBytes(64 << 10).setTargetFileSize(16 << 10));
+    }
+
+    @Test
+    public void mmapCompactionTest() throws Exception{
+        compactionTest(new StoreOptions().setCompactionStyle(CompactionStyle.SIZE_TIERED).setMmapReads(true));
+    }
+
+    @Test
+    public void walRecoveryTest() throws Exception{
+        File path = new File(directory, "data");
+        Assertions.assertTrue(path.mkdir());
+        WriteAheadLog wal = new WriteAheadLog(path, "table_log", SyncMode.SYNC, 0);
+        for(int i = 0; i < 150; i++) {
+            wal.append(LogRecord.PUT, ObjectSerializer.serialize(i), ObjectSerializer.serialize("String" + i));
+            if(i == 99) {
+                wal.rotate();
+            }
+        }
+        wal.close();
+        try(FileOutputStream torn = new FileOutputStream(new File(path, "table_log1.log"), true)) {
+            torn.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table")) {
+            for(int i = 0; i < 150; i++) {
+                Assertions.assertEquals("String" + i, store.get(i));
+            }
+            store.put(150, "String150");
+        }
+        Assertions.assertFalse(new File(path, "table_log0.log").exists());
+        Assertions.assertFalse(new File(path, "table_log1.log").exists());
+
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table")) {
+            Assertions.assertEquals("String150", store.get(150));
+        }
+
+        // a crash between publishing a flush and deleting its segment leaves the segment behind
+        StoreOptions options = new StoreOptions().setWalSyncMode(SyncMode.SYNC);
+        File segment;
+        byte[] staleSegment;
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table", options)) {
+            store.put(0, "Stale");
+            segment = Objects.requireNonNull(path.listFiles((dir, name) -> name.matches("table_log\\d+\\.log")))[0];
+            staleSegment = Files.readAllBytes(segment.toPath());
+            store.put(0, "Fresh");
+        }
+        Files.write(segment.toPath(), staleSegment);
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table", options)) {
+            Assertions.assertEquals("Fresh", store.get(0));
+            store.put(1, "Logged");
+        }
+        Assertions.assertFalse(segment.exists());
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table", options)) {
+            Assertions.assertEquals("Logged", store.get(1));
+        }
+    }
+
+    @Test
+    public void writeBatchTest() throws Exception{
+        File path = new File(directory, "data");
+        Assertions.assertTrue(path.mkdir());
+        WriteAheadLog wal = new WriteAheadLog(path, "table_log", SyncMode.SYNC, 0);
+        wal.append(List.of(new LogRecord(LogRecord.PUT, ObjectSerializer.serialize(1), ObjectSerializer.serialize("String1")),
+                new LogRecord(LogRecord.PUT, ObjectSerializer.serialize(2), ObjectSerializer.serialize("String2"))));
+        wal.append(List.of(new LogRecord(LogRecord.DELETE, ObjectSerializer.serialize(1), null)));
+        wal.append(List.of(new LogRecord(LogRecord.PUT, ObjectSerializer.serialize(3), ObjectSerializer.serialize("String3")),
+                new LogRecord(LogRecord.PUT, ObjectSerializer.serialize(4), ObjectSerializer.serialize("String4"))));
+        wal.close();
+        try(RandomAccessFile torn = new RandomAccessFile(new File(path, "table_log0.log"), "rw")) {
+            torn.setLength(torn.length() - 3);
+        }
+
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table", options)) {
+            Assertions.assertNull(store.get(1));
+            Assertions.assertEquals("String2", store.get(2));
+            Assertions.assertNull(store.get(3));
+            Assertions.assertNull(store.get(4));
+
+            WriteBatch<Integer, String> batch = new WriteBatch<>();
+            for(int i = 0; i < 250; i++) {
+                batch.put(i, "String" + i);
+            }
+            batch.delete(7).put(8, "Updated8");
+            store.write(batch);
+            for(int i = 0; i < 250; i++) {
+                Assertions.assertEquals(i == 7 ? null : (i == 8 ? "Updated" : "String") + i, store.get(i));
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path.getAbsolutePath(), "table", options)) {
+            for(int i = 0; i < 250; i++) {
+                Assertions.assertEquals(i == 7 ? null : (i == 8 ? "Updated" : "String") + i, store.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void scanDuringBatchTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(Store<Integer, String> store = new Store<>(1000, path, "table", options)) {
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicInteger torn = new AtomicInteger();
+            AtomicInteger scans = new AtomicInteger();
+            Thread scanner = new Thread(() -> {
+                while(!done.get()) {
+                    // every batch rewrites all the keys, so a scan sees a single round of values
+                    try(ScanIterator<Integer, String> scan = store.scan(null, null)) {
+                        String round = null;
+                        int count = 0;
+                        while(scan.hasNext()) {
+                            String value = scan.next().getValue();
+                            if(round == null) {
+                                round = value;
+                            } else if(!round.equals(value)) {
+                                torn.incrementAndGet();
+                            }
+                            count++;
+                        }
+                        if(count != 0 && count != 100) {
+                            torn.incrementAndGet();
+                        }
+                    }
+                    scans.incrementAndGet();
+                }
+            });
+            scanner.start();
+            for(int round = 0; round < 500; round++) {
+                WriteBatch<Integer, String> batch = new WriteBatch<>();
+                for(int i = 0; i < 100; i++) {
+                    batch.put(i, "Round" + round);
+                }
+                store.write(batch);
+            }
+            done.set(true);
+            scanner.join();
+            Assertions.assertEquals(0, torn.get());
+            Assertions.assertTrue(scans.get() > 0);
+        }
+    }
+
+    @Test
+    public void multiGetTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        List<Integer> keys = new ArrayList<>();
+        for(int i = 1999; i >= -10; i -= 3) {
+            keys.add(i);
+        }
+        keys.add(4);
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            for(int i = 0; i < 1000; i += 5) {
+                store.delete(i);
+            }
+            store.put(10, "Updated10");
+            assertMultiGet(store.multiGet(keys));
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            assertMultiGet(store.multiGet(keys));
+            Assertions.assertTrue(store.multiGet(List.of()).isEmpty());
+        }
+    }
+
+    @Test
+    public void snapshotTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.SIZE_TIERED);
+        long sequence;
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            try(Snapshot<Integer, String> snapshot = store.snapshot()) {
+                Assertions.assertEquals(1000, snapshot.sequence());
+                for(int version = 0; version < 5; version++) {
+                    for(int i = 0; i < 1000; i++) {
+                        store.put(i, "Updated" + i);
+                    }
+                }
+                for(int i = 0; i < 1000; i += 2) {
+                    store.delete(i);
+                }
+                long deadline = System.currentTimeMillis() + 10000;
+                while(new File(path).list((dir, name) -> name.matches("table\\d+")).length >= 20
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+
+                ScanIterator<Integer, String> scan;
+                try(ScanIterator<Integer, String> all = snapshot.scan(null, null)) {
+                    for(int i = 0; i < 1000; i++) {
+                        Assertions.assertEquals("String" + i, snapshot.get(i));
+                        Assertions.assertEquals(i, all.next().getKey());
+                    }
+                    Assertions.assertFalse(all.hasNext());
+                }
+                Assertions.assertEquals("String2", snapshot.multiGet(List.of(1, 2, 999)).get(2));
+                Assertions.assertEquals("Updated1", store.get(1));
+                Assertions.assertNull(store.get(2));
+                scan = snapshot.scan(500, 502);
+                snapshot.close();
+                Assertions.assertEquals("String500", scan.next().getValue());
+                scan.close();
+                Assertions.assertThrows(IllegalStateException.class, () -> snapshot.get(1));
+            }
+            sequence = store.lastSequence();
+            Assertions.assertEquals(6500, sequence);
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            Assertions.assertEquals(sequence, store.lastSequence());
+            Assertions.assertEquals("Updated1", store.get(1));
+        }
+    }
+
+    @Test
+    public void snapshotVersionsTest() throws Exception{
+        for(MemTableType type : MemTableType.values()) {
+            String path = directory.getAbsolutePath() + "/" + type;
+            StoreOptions options = new StoreOptions().setMemTableType(type)
+                    .setCompactionStyle(CompactionStyle.SIZE_TIERED).setSizeTieredMinThreshold(2);
+            try(Store<Long, String> store = new Store<>(100, path, "table", options, Codecs.LONG, Codecs.STRING)) {
+                for(long i = 0; i < 50; i++) {
+                    store.put(i, "a" + i);
+                }
+                Snapshot<Long, String> snapshot = store.snapshot();
+                // taking a snapshot neither rotates the MemTable nor writes a file
+                Assertions.assertEquals(0, new File(path).list((dir, name) -> name.matches("table\\d+")).length);
+                Assertions.assertEquals(0, store.metrics().flushQueueDepth());
+
+                for(int round = 0; round < 10; round++) {
+                    for(long i = 0; i < 50; i++) {
+                        store.put(i, "b" + i);
+                    }
+                }
+                for(long i = 0; i < 50; i += 2) {
+                    store.delete(i);
+                }
+                for(long i = 0; i < 50; i++) {
+                    Assertions.assertEquals("a" + i, snapshot.get(i));
+                    Assertions.assertEquals(i % 2 == 0 ? null : "b" + i, store.get(i));
+                }
+                SortedMap<Long, String> old = snapshot.multiGet(List.of(0L, 49L, 50L));
+                Assertions.assertEquals(Map.of(0L, "a0", 49L, "a49"), old);
+                try(ScanIterator<Long, String> scan = snapshot.scan(10L, 20L)) {
+                    for(long i = 10; i < 20; i++) {
+                        Assertions.assertEquals("a" + i, scan.next().getValue());
+                    }
+                    Assertions.assertFalse(scan.hasNext());
+                }
+                snapshot.close();
+
+                for(long i = 50; i < 300; i++) {
+                    store.put(i, "c" + i);
+                }
+                for(long i = 0; i < 50; i++) {
+                    Assertions.assertEquals(i % 2 == 0 ? null : "b" + i, store.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concurrentPutTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        try(Store<Integer, String> store = new Store<>(500, path, "table")) {
+            Thread[] writers = new Thread[8];
+            for(int t = 0; t < writers.length; t++) {
+                int offset = t;
+                writers[t] = new Thread(() -> {
+                    for(int i = offset; i < 16000; i += writers.length) {
+                        store.put(i, "String" + i);
+                    }
+                });
+                writers[t].start();
+            }
+            for(Thread writer : writers) {
+                writer.join();
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(500, path, "table")) {
+            for(int i = 0; i < 16000; i++) {
+                Assertions.assertEquals("String" + i, store.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void scanTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.NONE);
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            for(int i = 0; i < 1000; i += 3) {
+                store.put(i, "Updated" + i);
+            }
+            assertScan(store, 250, 750);
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            assertScan(store, 250, 750);
+            assertScan(store, null, null);
+            try(ScanIterator<Integer, String> scan = store.scan(2000, null)) {
+                Assertions.assertFalse(scan.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void deleteTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.SIZE_TIERED);
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(i, "String" + i);
+            }
+            for(int i = 0; i < 1000; i += 3) {
+                store.delete(i);
+            }
+            store.delete(5000);
+            assertDeleted(store);
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            assertDeleted(store);
+            store.put(3, "String3");
+            Assertions.assertEquals("String3", store.get(3));
+        }
+    }
+
+    @Test
+    public void codecStoreTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setCompactionStyle(CompactionStyle.SIZE_TIERED);
+        try(Store<byte[], String> store = new Store<>(100, path, "table", options, Codecs.BYTE_ARRAY, Codecs.STRING)) {
+            for(int i = 0; i < 1000; i++) {
+                store.put(new byte[] {(byte) (i >> 8), (byte) i}, "String" + i);
+            }
+            store.delete(new byte[] {0, 5});
+        }
+
+        try(Store<byte[], String> store = new Store<>(100, path, "table", options, Codecs.BYTE_ARRAY, Codecs.STRING)) {
+            for(int i = 0; i < 1000; i++) {
+                Assertions.assertEquals(i == 5 ? null : "String" + i, store.get(new byte[] {(byte) (i >> 8), (byte) i}));
+            }
+            try(ScanIterator<byte[], String> scan = store.scan(new byte[] {0, (byte) 200}, new byte[] {1, 44})) {
+                for(int i = 200; i < 300; i++) {
+                    Assertions.assertEquals("String" + i, scan.next().getValue());
+                }
+                Assertions.assertFalse(scan.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void longKeyStoreTest() throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        StoreOptions options = new StoreOptions().setMemTableType(MemTableType.LONG)
+                .setCompactionStyle(CompactionStyle.SIZE_TIERED);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Store<Long, String>(100, path, "table", options));
+        try(Store<Long, byte[]> store = new Store<>(100, path, "table", options, Codecs.LONG, Codecs.BYTE_ARRAY)) {
+            for(long i = -500; i < 500; i++) {
+                store.putLong(i * 1_000_003L, new byte[] {(byte) i});
+            }
+            store.deleteLong(7 * 1_000_003L);
+            Assertions.assertNull(store.getLong(7 * 1_000_003L));
+            Assertions.assertArrayEquals(new byte[] {(byte) -3}, store.getLong(-3 * 1_000_003L));
+        }
+
+        try(Store<Long, byte[]> store = new Store<>(100, path, "table", options, Codecs.LONG, Codecs.BYTE_ARRAY)) {
+            for(long i = -500; i < 500; i++) {
+                byte[] expected = i == 7 ? null : new byte[] {(byte) i};
+                Assertions.assertArrayEquals(expected, store.getLong(i * 1_000_003L));
+                Assertions.assertArrayEquals(expected, store.get(i * 1_000_003L));
+            }
+            Assertions.assertNull(store.getLong(1));
+            try(ScanIterator<Long, byte[]> scan = store.scan(-10 * 1_000_003L, 10 * 1_000_003L)) {
+                for(long i = -10; i < 10; i++) {
+                    if(i != 7) {
+                        Assertions.assertEquals(i * 1_000_003L, scan.next().getKey());
+                    }
+                }
+                Assertions.assertFalse(scan.hasNext());
+            }
+        }
+    }
+
+    private void assertMultiGet(SortedMap<Integer, String> result) {
+        int expected = 1;
+        for(Map.Entry<Integer, String> entry : result.entrySet()) {
+            while(expected % 5 == 0 && expected != 10) {
+                expected += 3;
+            }
+            Assertions.assertEquals(expected, entry.getKey());
+            Assertions.assertEquals((expected == 10 ? "Updated" : "String") + expected, entry.getValue());
+            expected += 3;
+        }
+        Assertions.assertEquals(1000, expected);
+    }
+
+    private void assertDeleted(Store<Integer, String> store) {
+        for(int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(i % 3 == 0 ? null : "String" + i, store.get(i));
+        }
+        try(ScanIterator<Integer, String> scan = store.scan(null, null)) {
+            int count = 0;
+            while(scan.hasNext()) {
+                Assertions.assertNotEquals(0, scan.next().getKey() % 3);
+                count++;
+            }
+            Assertions.assertEquals(666, count);
+        }
+    }
+
+    private void assertScan(Store<Integer, String> store, Integer from, Integer to) {
+        int expected = from == null ? 0 : from;
+        try(ScanIterator<Integer, String> scan = store.scan(from, to)) {
+            while(scan.hasNext()) {
+                Map.Entry<Integer, String> entry = scan.next();
+                Assertions.assertEquals(expected, entry.getKey());
+                Assertions.assertEquals((expected % 3 == 0 ? "Updated" : "String") + expected, entry.getValue());
+                expected++;
+            }
+        }
+        Assertions.assertEquals(to == null ? 1000 : to, expected);
+    }
+
+    private void compactionTest(StoreOptions options) throws Exception{
+        String path = directory.getAbsolutePath() + "/data";
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int version = 0; version < 10; version++) {
+                for(int i = 0; i < 500; i++) {
+                    store.put(i * 7 % 500, "String" + i * 7 % 500 + "_" + version);
+                }
+            }
+        }
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while(new File(path).listFiles().length >= 10 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            for(int i = 0; i < 500; i++) {
+                Assertions.assertEquals("String" + i + "_9", store.get(i));
+            }
+        }
+        Assertions.assertTrue(new File(path).listFiles().length < 10);
+
+        try(Store<Integer, String> store = new Store<>(100, path, "table", options)) {
+            for(int i = 0; i < 500; i++) {
+                Assertions.assertEquals("String" + i + "_9", store.get(i));
+            }
+        }
+    }
+}